@@ -0,0 +1,162 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import main.CanonicalFile;
+import main.PcmDecoder;
+
+/**
+ * Measures how many bytes are allocated, and how long it takes, to
+ * decode and to fingerprint a long canonical file, comparing the
+ * original per-sample ByteBuffer decoding with PcmDecoder
+ * For a GC view of the same run, add
+ * -XX:StartFlightRecording=filename=decode.jfr or -verbose:gc
+ * Usage: java bench.DecodeAllocationBenchmark [minutes] [channels]
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class DecodeAllocationBenchmark {
+    /**
+     * Sample rate of canonical files
+     */
+    private static final int SAMPLE_RATE = 11025;
+
+    /**
+     * Runs the benchmark
+     * @param args Length of the file in minutes and number of channels
+     * @throws IOException If the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        double minutes = args.length > 0 ? Double.parseDouble(args[0]) : 60;
+        int channels = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        short[] song = SyntheticAudio.song(1, SAMPLE_RATE, minutes * 60);
+        int frame = 2 * channels;
+        byte[] pcm = new byte[song.length * frame];
+        for(int i = 0; i < song.length; i++){
+            for(int c = 0; c < channels; c++){
+                pcm[i * frame + 2 * c] = (byte) song[i];
+                pcm[i * frame + 2 * c + 1] = (byte) (song[i] >> 8);
+            }
+        }
+        int chunks = song.length / CanonicalFile.SAMPLES_PER_CHUNK;
+        System.out.println(minutes + " min, " + channels + " channel(s), " +
+                chunks + " chunks");
+
+        for(int round = 0; round < 3; round++){
+            long bytes = allocated();
+            long start = System.nanoTime();
+            double sink = legacyDecode(pcm, channels, chunks);
+            report("per-sample ByteBuffer decode", start, bytes);
+            bytes = allocated();
+            start = System.nanoTime();
+            sink += decoderDecode(pcm, channels, chunks);
+            report("PcmDecoder decode", start, bytes);
+            if(sink == 0.5){
+                System.out.println();
+            }
+        }
+
+        File wav = File.createTempFile("decode-", ".wav");
+        wav.deleteOnExit();
+        SyntheticAudio.writeWav(wav, song, SAMPLE_RATE, channels);
+        long bytes = allocated();
+        long start = System.nanoTime();
+        new CanonicalFile(wav.getName(), wav).fingerprintColumns();
+        report("CanonicalFile.fingerprintColumns", start, bytes);
+    }
+
+    /**
+     * Decodes every chunk the way CanonicalFile originally did, with a
+     * new sample array per chunk and a new ByteBuffer per sample
+     * @param pcm PCM data
+     * @param channels Number of channels
+     * @param chunks Number of chunks
+     * @return Sum of the first sample of every chunk
+     */
+    private static double legacyDecode(byte[] pcm, int channels,
+            int chunks){
+        double sum = 0;
+        int frame = 2 * channels;
+        int chunkBytes = CanonicalFile.SAMPLES_PER_CHUNK * frame;
+        for(int c = 0; c < chunks; c++){
+            double[] samples = new double[CanonicalFile.SAMPLES_PER_CHUNK];
+            for(int i = 0; i < samples.length; i++){
+                int index = c * chunkBytes + i * frame;
+                double s = bytesToDouble(pcm, index, 2);
+                if(channels == 2){
+                    s = (s + bytesToDouble(pcm, index + 2, 2)) / 2.0;
+                }
+                samples[i] = s;
+            }
+            sum += samples[0];
+        }
+        return sum;
+    }
+
+    /**
+     * Decodes every chunk with a PcmDecoder into one reused array
+     * @param pcm PCM data
+     * @param channels Number of channels
+     * @param chunks Number of chunks
+     * @return Sum of the first sample of every chunk
+     */
+    private static double decoderDecode(byte[] pcm, int channels,
+            int chunks){
+        double sum = 0;
+        PcmDecoder decoder = new PcmDecoder(16, channels);
+        int chunkBytes = CanonicalFile.SAMPLES_PER_CHUNK *
+                decoder.getFrameSize();
+        double[] samples = new double[CanonicalFile.SAMPLES_PER_CHUNK];
+        for(int c = 0; c < chunks; c++){
+            decoder.decode(pcm, c * chunkBytes, samples, samples.length);
+            sum += samples[0];
+        }
+        return sum;
+    }
+
+    /**
+     * The original CanonicalFile.bytesToDouble
+     * @param arr Array of bytes
+     * @param startIndex Index in array of bytes
+     * @param len Number of bytes to convert into a sample
+     * @return Sample
+     */
+    private static double bytesToDouble(byte[] arr, int startIndex, int len){
+        ByteBuffer bb = ByteBuffer.allocate(len);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < len; i++){
+            bb.put(arr[startIndex+i]);
+        }
+        return (double)bb.getShort(0);
+    }
+
+    /**
+     * Prints the time and allocation of a step
+     * @param label Name of the step
+     * @param start System.nanoTime() at the start of the step
+     * @param bytes allocated() at the start of the step
+     */
+    private static void report(String label, long start, long bytes){
+        long millis = (System.nanoTime() - start) / 1000000;
+        long mb = (allocated() - bytes) / (1024 * 1024);
+        System.out.println(label + ": " + millis + " ms, " + mb +
+                " MB allocated" + (millis > 0 ?
+                        " (" + (mb * 1000 / millis) + " MB/s)" : ""));
+    }
+
+    /**
+     * Gets the number of bytes allocated by this thread so far
+     * @return Bytes allocated
+     */
+    private static long allocated(){
+        return ((com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,214 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import main.CanonicalFile;
+import main.FFT;
+import main.FFTPlan;
+import main.Fingerprint;
+
+/**
+ * Measures the cost per chunk of FFT.transform against an FFTPlan's
+ * transform, realTransform and halfMagnitudes, checks how far their
+ * outputs are from FFT.transform, counts the chunks whose bands
+ * Fingerprint.computeBandsDirect computes differently, and times the
+ * batched computeBandsDirect in chunks/s on one core against the
+ * single-chunk one
+ * Usage: java bench.FFTBenchmark [chunks]
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class FFTBenchmark {
+    /**
+     * Number of timed rounds after warm-up
+     */
+    private static final int ROUNDS = 5;
+    /**
+     * Numbers of chunks per batch timed for the batched
+     * computeBandsDirect
+     */
+    private static final int[] BATCHES = {1, 4, 8, 16};
+
+    /**
+     * Runs the benchmark
+     * @param args Number of chunks transformed per round
+     */
+    public static void main(String[] args){
+        int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int n = CanonicalFile.SAMPLES_PER_CHUNK;
+        Random random = new Random(42);
+        double[][] data = new double[chunks][n];
+        for(double[] chunk : data){
+            for(int i = 0; i < n; i++){
+                chunk[i] = random.nextInt(65536) - 32768;
+            }
+        }
+        FFTPlan plan = new FFTPlan(n);
+        double[] re = new double[n];
+        double[] im = new double[n];
+        double[] mag = new double[n];
+        double[] expected = new double[n];
+        int[] bands = new int[Fingerprint.NUMBER_OF_BANDS];
+        int[] directBands = new int[Fingerprint.NUMBER_OF_BANDS];
+
+        // Accuracy of the plan against the original transform
+        int exact = 0;
+        double worst = 0;
+        double halfWorst = 0;
+        int bandsDiffer = 0;
+        for(double[] chunk : data){
+            FFT.transform(chunk, new double[n], new double[n], expected);
+            plan.transform(chunk, re, im, mag);
+            boolean same = true;
+            for(int i = 0; i < n; i++){
+                same &= mag[i] == expected[i];
+            }
+            exact += same ? 1 : 0;
+            plan.realTransform(chunk, re, im, mag);
+            for(int i = 0; i < n; i++){
+                worst = Math.max(worst, Math.abs(mag[i] - expected[i]) /
+                        Math.max(1e-9, Math.abs(expected[i])));
+            }
+            plan.halfMagnitudes(chunk, re, im);
+            for(int i = 0; i <= n / 2; i++){
+                halfWorst = Math.max(halfWorst,
+                        Math.abs(re[i] - expected[i]) /
+                        Math.max(1e-9, Math.abs(expected[i])));
+            }
+            Fingerprint.computeBands(chunk, bands);
+            Fingerprint.computeBandsDirect(chunk, directBands);
+            bandsDiffer += Arrays.equals(bands, directBands) ? 0 : 1;
+        }
+        System.out.println("transform identical to FFT.transform: " +
+                exact + "/" + chunks + " chunks");
+        System.out.println("realTransform worst relative error: " + worst);
+        System.out.println("halfMagnitudes worst relative error: " +
+                halfWorst);
+        System.out.println("computeBandsDirect bands differ: " +
+                bandsDiffer + "/" + chunks + " chunks");
+
+        double sink = 0;
+        long fftBest = Long.MAX_VALUE;
+        long planBest = Long.MAX_VALUE;
+        long realBest = Long.MAX_VALUE;
+        long halfBest = Long.MAX_VALUE;
+        for(int r = 0; r < 2 * ROUNDS; r++){
+            long start = System.nanoTime();
+            for(double[] chunk : data){
+                FFT.transform(chunk, new double[n], new double[n], mag);
+                sink += mag[1];
+            }
+            long fft = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(double[] chunk : data){
+                plan.transform(chunk, re, im, mag);
+                sink += mag[1];
+            }
+            long planned = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(double[] chunk : data){
+                plan.realTransform(chunk, re, im, mag);
+                sink += mag[1];
+            }
+            long real = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(double[] chunk : data){
+                plan.halfMagnitudes(chunk, re, im);
+                sink += re[1];
+            }
+            long halved = System.nanoTime() - start;
+            // The first ROUNDS rounds are warm-up
+            if(r >= ROUNDS){
+                fftBest = Math.min(fftBest, fft);
+                planBest = Math.min(planBest, planned);
+                realBest = Math.min(realBest, real);
+                halfBest = Math.min(halfBest, halved);
+            }
+        }
+        System.out.println("FFT.transform:          " +
+                (fftBest / chunks) + " ns/chunk");
+        System.out.println("FFTPlan.transform:      " +
+                (planBest / chunks) + " ns/chunk");
+        System.out.println("FFTPlan.realTransform:  " +
+                (realBest / chunks) + " ns/chunk");
+        System.out.println("FFTPlan.halfMagnitudes: " +
+                (halfBest / chunks) + " ns/chunk");
+        for(int batch : BATCHES){
+            sink += batched(plan, data, batch);
+        }
+        System.out.println("(checksum: " + sink + ")");
+    }
+
+    /**
+     * Checks FFTPlan.halfMagnitudesBatch against FFTPlan.halfMagnitudes
+     * and the batched Fingerprint.computeBandsDirect against the
+     * single-chunk one, and times the batched computeBandsDirect on
+     * batches of the given size in this one thread
+     * @param plan Plan of the chunk size
+     * @param data Chunks to fingerprint
+     * @param batch Number of chunks per batch, 1 timing the single-chunk
+     * computeBandsDirect
+     * @return Checksum of the output
+     */
+    private static double batched(FFTPlan plan, double[][] data,
+            int batch){
+        int n = plan.size();
+        int chunks = data.length - data.length % batch;
+        int bands = Fingerprint.NUMBER_OF_BANDS;
+        double[] re = new double[(n / 2 + 1) * batch];
+        double[] im = new double[(n / 2 + 1) * batch];
+        double[] expected = new double[n];
+        double[] scratch = new double[n];
+        int[] batchBands = new int[batch * bands];
+        int[] chunkBands = new int[bands];
+
+        int exact = 0;
+        int sameBands = 0;
+        for(int c = 0; c < chunks; c += batch){
+            plan.halfMagnitudesBatch(data, c, batch, re, im);
+            Fingerprint.computeBandsDirect(data, c, batch, batchBands);
+            for(int k = 0; k < batch; k++){
+                plan.halfMagnitudes(data[c + k], expected, scratch);
+                boolean same = true;
+                for(int i = 0; i <= n / 2; i++){
+                    same &= re[i * batch + k] == expected[i];
+                }
+                exact += same ? 1 : 0;
+                Fingerprint.computeBandsDirect(data[c + k], chunkBands);
+                sameBands += Arrays.equals(chunkBands, Arrays.copyOfRange(
+                        batchBands, k * bands, (k + 1) * bands)) ? 1 : 0;
+            }
+        }
+
+        double sink = 0;
+        long best = Long.MAX_VALUE;
+        for(int r = 0; r < 2 * ROUNDS; r++){
+            long start = System.nanoTime();
+            if(batch == 1){
+                for(double[] chunk : data){
+                    Fingerprint.computeBandsDirect(chunk, chunkBands);
+                    sink += chunkBands[1];
+                }
+            } else {
+                for(int c = 0; c < chunks; c += batch){
+                    Fingerprint.computeBandsDirect(data, c, batch,
+                            batchBands);
+                    sink += batchBands[1];
+                }
+            }
+            // The first ROUNDS rounds are warm-up
+            if(r >= ROUNDS){
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        System.out.println("Fingerprint.computeBandsDirect(" + batch +
+                "): " + (best / chunks) + " ns/chunk, " +
+                (chunks * 1000000000L / best) + " chunks/s per core, " +
+                "magnitudes identical: " + exact + "/" + chunks +
+                ", bands identical: " + sameBands + "/" + chunks);
+        return sink;
+    }
+}
@@ -0,0 +1,119 @@
+package bench;
+
+import java.util.Arrays;
+
+/**
+ * Times benchmarks the same way every time: warm-up rounds so the code
+ * is compiled, then measured rounds reported as the best and median
+ * time per operation
+ * A task returns a checksum of its work, which is printed at the end so
+ * the JIT cannot drop the work as dead code
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class Harness {
+    /**
+     * A piece of work that is timed as a whole
+     */
+    public interface Task {
+        /**
+         * Does the work once
+         * @return Checksum of the work
+         * @throws Exception If the work fails
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * Number of rounds run before timing
+     */
+    private final int warmupRounds;
+    /**
+     * Number of timed rounds
+     */
+    private final int rounds;
+    /**
+     * Names a benchmark must contain one of to run, or empty to run all
+     */
+    private final String[] filters;
+    /**
+     * Checksum of every task run
+     */
+    private long sink = 0;
+
+    /**
+     * Constructor for a Harness
+     * @param warmupRounds Number of rounds run before timing
+     * @param rounds Number of timed rounds
+     * @param filters Names a benchmark must contain one of to run, or
+     * none to run every benchmark
+     */
+    public Harness(int warmupRounds, int rounds, String[] filters){
+        this.warmupRounds = warmupRounds;
+        this.rounds = rounds;
+        this.filters = filters;
+    }
+
+    /**
+     * Checks whether the benchmark of the given name is to run
+     * @param name Name of the benchmark
+     * @return True if no filter was given or the name contains one
+     */
+    public boolean selected(String name){
+        if(filters.length == 0){
+            return true;
+        }
+        for(String filter : filters){
+            if(name.contains(filter)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Times a task and prints one line of results, unless the
+     * benchmark is filtered out
+     * @param name Name of the benchmark
+     * @param operations Number of operations one run of the task does
+     * @param task Work to time
+     * @throws Exception If the task fails
+     */
+    public void time(String name, long operations, Task task)
+            throws Exception {
+        if(!selected(name)){
+            return;
+        }
+        for(int r = 0; r < warmupRounds; r++){
+            sink += task.run();
+        }
+        long[] times = new long[rounds];
+        for(int r = 0; r < rounds; r++){
+            long start = System.nanoTime();
+            sink += task.run();
+            times[r] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        double best = (double) times[0] / operations;
+        double median = (double) times[rounds / 2] / operations;
+        System.out.printf("%-28s %14.1f %14.1f %14.0f%n", name, best,
+                median, 1e9 / best);
+    }
+
+    /**
+     * Prints the heading of the result lines
+     */
+    public void printHeading(){
+        System.out.printf("%-28s %14s %14s %14s%n", "benchmark",
+                "best ns/op", "median ns/op", "best ops/s");
+    }
+
+    /**
+     * Prints the checksum of every task run
+     */
+    public void printChecksum(){
+        System.out.println("(checksum: " + sink + ")");
+    }
+}
@@ -0,0 +1,360 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import main.CanonicalFile;
+import main.FFT;
+import main.Fingerprint;
+import main.FingerprintColumns;
+import main.FingerprintIndex;
+import main.SignalMatcher;
+
+/**
+ * Times every hot path of the matcher on generated audio, so results
+ * can be compared before and after a change and reproduced offline:
+ * the FFT of a chunk, building a Fingerprint, fingerprinting WAV files
+ * of several lengths, scanning the index at several fill levels,
+ * chainCompare, and matching a directory of queries against a
+ * directory of references
+ * Benchmarks whose names contain none of the given filters are skipped
+ * Usage: java bench.HotPathBenchmark [name filters...]
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class HotPathBenchmark {
+    /**
+     * Number of untimed rounds before each benchmark
+     */
+    private static final int WARMUP_ROUNDS = 5;
+    /**
+     * Number of timed rounds of each benchmark
+     */
+    private static final int ROUNDS = 10;
+    /**
+     * Number of chunks transformed or fingerprinted per round
+     */
+    private static final int CHUNKS = 500;
+    /**
+     * Lengths in seconds of the WAV files fingerprinted
+     */
+    private static final int[] FILE_SECONDS = {10, 60, 240};
+    /**
+     * Numbers of indexed chunks scanned
+     */
+    private static final int[] INDEX_CHUNKS = {1000, 10000, 100000};
+    /**
+     * Number of query fingerprints per index scan
+     */
+    private static final int SCAN_QUERIES = 2000;
+    /**
+     * Number of reference songs matched against
+     */
+    private static final int REFERENCES = 6;
+    /**
+     * Length of each reference song in seconds
+     */
+    private static final double REFERENCE_SECONDS = 30;
+    /**
+     * Length of each query in seconds
+     */
+    private static final double QUERY_SECONDS = 10;
+    /**
+     * Standard deviation of the noise added to excerpts
+     */
+    private static final double NOISE = 500;
+
+    /**
+     * Runs the benchmarks
+     * @param args Name filters
+     * @throws Exception If a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        Harness harness = new Harness(WARMUP_ROUNDS, ROUNDS, args);
+        harness.printHeading();
+        fft(harness);
+        fingerprint(harness);
+        fingerprintFile(harness);
+        scanMap(harness);
+        chainCompare(harness);
+        matchDirectories(harness);
+        harness.printChecksum();
+    }
+
+    /**
+     * Times FFT.transform of one chunk
+     * @param harness Harness to time with
+     * @throws Exception If the benchmark fails
+     */
+    private static void fft(Harness harness) throws Exception {
+        final double[][] chunks = chunks(1, CHUNKS);
+        final int n = CanonicalFile.SAMPLES_PER_CHUNK;
+        harness.time("fft.transform", CHUNKS, new Harness.Task(){
+            @Override
+            public long run(){
+                double[] mag = new double[n];
+                long sum = 0;
+                for(double[] chunk : chunks){
+                    FFT.transform(chunk, new double[n], new double[n], mag);
+                    sum += (long) mag[1];
+                }
+                return sum;
+            }
+        });
+    }
+
+    /**
+     * Times building a Fingerprint from the samples of one chunk
+     * @param harness Harness to time with
+     * @throws Exception If the benchmark fails
+     */
+    private static void fingerprint(Harness harness) throws Exception {
+        final double[][] chunks = chunks(2, CHUNKS);
+        harness.time("fingerprint.new", CHUNKS, new Harness.Task(){
+            @Override
+            public long run(){
+                long sum = 0;
+                for(int i = 0; i < chunks.length; i++){
+                    sum += new Fingerprint(chunks[i], "bench", i)
+                            .hashCode();
+                }
+                return sum;
+            }
+        });
+    }
+
+    /**
+     * Times CanonicalFile.fingerprintFile on WAV files of each length in
+     * FILE_SECONDS, per file
+     * @param harness Harness to time with
+     * @throws Exception If the benchmark fails
+     */
+    private static void fingerprintFile(Harness harness) throws Exception {
+        for(int seconds : FILE_SECONDS){
+            String name = "fingerprintFile." + seconds + "s";
+            if(!harness.selected(name)){
+                continue;
+            }
+            final File wav = SyntheticAudio.tempWav(seconds,
+                    CanonicalFile.CANONICAL_SAMPLE_RATE, 1, seconds);
+            harness.time(name, 1, new Harness.Task(){
+                @Override
+                public long run(){
+                    return new CanonicalFile(wav.getName(), wav)
+                            .fingerprintFile().length;
+                }
+            });
+        }
+    }
+
+    /**
+     * Times the scan of every indexed chunk within the acceptable hash
+     * range of a query, per query, for each index size in INDEX_CHUNKS
+     * @param harness Harness to time with
+     * @throws Exception If the benchmark fails
+     */
+    private static void scanMap(Harness harness) throws Exception {
+        Random random = new Random(42);
+        final FingerprintColumns query = FingerprintColumns.of("query",
+                SyntheticAudio.randomFingerprints(random, "query",
+                        SCAN_QUERIES));
+        for(int chunks : INDEX_CHUNKS){
+            String name = "scanMap." + chunks;
+            if(!harness.selected(name)){
+                continue;
+            }
+            ArrayList<CanonicalFile> files = new ArrayList<CanonicalFile>();
+            files.add(new CanonicalFile(FingerprintColumns.of("ref",
+                    SyntheticAudio.randomFingerprints(random, "ref",
+                            chunks))));
+            final FingerprintIndex index = FingerprintIndex.build(files);
+            harness.time(name, SCAN_QUERIES, new Harness.Task(){
+                @Override
+                public long run(){
+                    long found = 0;
+                    for(int i = 0; i < query.size(); i++){
+                        int hash = query.hashOf(i);
+                        int end = index.rangeEnd(hash,
+                                SignalMatcher.ACCEPTABLE_HASH_RANGE);
+                        for(int p = index.rangeStart(hash,
+                                SignalMatcher.ACCEPTABLE_HASH_RANGE);
+                                p < end; p++){
+                            found += index.chunkOf(p);
+                        }
+                    }
+                    return found;
+                }
+            });
+        }
+    }
+
+    /**
+     * Times SignalMatcher.chainCompare on fragments of a song against a
+     * noisy copy, half of them aligned so that they match and half not
+     * @param harness Harness to time with
+     * @throws Exception If the benchmark fails
+     */
+    private static void chainCompare(Harness harness) throws Exception {
+        if(!harness.selected("chainCompare")){
+            return;
+        }
+        short[] song = SyntheticAudio.song(3,
+                CanonicalFile.CANONICAL_SAMPLE_RATE, REFERENCE_SECONDS);
+        final FingerprintColumns ref = fingerprint("ref", song);
+        final FingerprintColumns copy = fingerprint("copy",
+                noisy(new Random(3), song, 0, song.length));
+        final int starts = ref.size() - SignalMatcher.FRAGMENT_SIZE;
+        harness.time("chainCompare", 2 * starts, new Harness.Task(){
+            @Override
+            public long run(){
+                long matched = 0;
+                for(int c = 0; c < starts; c++){
+                    matched += SignalMatcher.chainCompare(ref, c, copy, c)
+                            ? 1 : 0;
+                    matched += SignalMatcher.chainCompare(ref, c, copy,
+                            (c + starts / 2) % starts) ? 1 : 0;
+                }
+                return matched;
+            }
+        });
+    }
+
+    /**
+     * Times fingerprinting and matching a directory of queries against
+     * a directory of references, as SignalMatcher does for -d -d once
+     * the files are in canonical form
+     * Half of the queries are noisy excerpts of references and half are
+     * unrelated songs
+     * @param harness Harness to time with
+     * @throws Exception If the benchmark fails
+     */
+    private static void matchDirectories(Harness harness)
+            throws Exception {
+        if(!harness.selected("matchDirectories")){
+            return;
+        }
+        Random random = new Random(42);
+        int rate = CanonicalFile.CANONICAL_SAMPLE_RATE;
+        final ArrayList<File> refs = new ArrayList<File>();
+        final ArrayList<File> queries = new ArrayList<File>();
+        for(int s = 0; s < REFERENCES; s++){
+            short[] song = SyntheticAudio.song(100 + s, rate,
+                    REFERENCE_SECONDS);
+            refs.add(wav("ref" + s, song));
+            if(s % 2 == 0){
+                int length = (int) (QUERY_SECONDS * rate);
+                int start = random.nextInt(song.length - length);
+                queries.add(wav("excerpt" + s,
+                        noisy(random, song, start, length)));
+            } else {
+                queries.add(SyntheticAudio.tempWav(200 + s, rate, 1,
+                        QUERY_SECONDS));
+            }
+        }
+        harness.time("matchDirectories", 1, new Harness.Task(){
+            @Override
+            public long run(){
+                FingerprintIndex index =
+                        FingerprintIndex.build(fingerprinted(refs));
+                String[][] found =
+                        SignalMatcher.matchAll(index, fingerprinted(queries));
+                long matches = 0;
+                for(String[] queryMatches : found){
+                    for(String match : queryMatches){
+                        matches += match != null ? 1 : 0;
+                    }
+                }
+                return matches;
+            }
+        });
+    }
+
+    /**
+     * Generates chunks of samples of a song
+     * @param seed Seed of the song
+     * @param count Number of chunks
+     * @return Chunks of SAMPLES_PER_CHUNK samples
+     */
+    private static double[][] chunks(long seed, int count){
+        int n = CanonicalFile.SAMPLES_PER_CHUNK;
+        short[] song = SyntheticAudio.song(seed,
+                CanonicalFile.CANONICAL_SAMPLE_RATE,
+                (double) count * n / CanonicalFile.CANONICAL_SAMPLE_RATE + 1);
+        double[][] chunks = new double[count][n];
+        for(int c = 0; c < count; c++){
+            for(int i = 0; i < n; i++){
+                chunks[c][i] = song[c * n + i];
+            }
+        }
+        return chunks;
+    }
+
+
+    /**
+     * Copies part of a song with noise added
+     * @param random Source of the noise
+     * @param song Samples of the song
+     * @param start First sample copied
+     * @param length Number of samples copied
+     * @return Noisy samples
+     */
+    private static short[] noisy(Random random, short[] song, int start,
+            int length){
+        short[] copy = new short[length];
+        for(int i = 0; i < length; i++){
+            double v = song[start + i] + random.nextGaussian() * NOISE;
+            copy[i] = (short) Math.max(-32768, Math.min(32767, v));
+        }
+        return copy;
+    }
+
+    /**
+     * Fingerprints samples through a temporary WAV file
+     * @param name Name of the file
+     * @param samples Samples at the canonical sample rate
+     * @return Fingerprints of the samples
+     * @throws IOException If the file cannot be written
+     */
+    private static FingerprintColumns fingerprint(String name,
+            short[] samples) throws IOException {
+        File file = wav(name, samples);
+        return new CanonicalFile(name, file).fingerprintColumns();
+    }
+
+    /**
+     * Writes samples to a temporary mono WAV file at the canonical
+     * sample rate
+     * @param name Name of the file
+     * @param samples Samples of the file
+     * @return The WAV file
+     * @throws IOException If the file cannot be written
+     */
+    private static File wav(String name, short[] samples)
+            throws IOException {
+        File file = File.createTempFile(name + "-", ".wav");
+        file.deleteOnExit();
+        SyntheticAudio.writeWav(file, samples,
+                CanonicalFile.CANONICAL_SAMPLE_RATE, 1);
+        return file;
+    }
+
+    /**
+     * Fingerprints WAV files afresh
+     * @param files WAV files at the canonical sample rate
+     * @return Canonical files with their fingerprints computed
+     */
+    private static ArrayList<CanonicalFile> fingerprinted(
+            ArrayList<File> files){
+        ArrayList<CanonicalFile> canonical = new ArrayList<CanonicalFile>();
+        for(File file : files){
+            CanonicalFile cf = new CanonicalFile(file.getName(), file);
+            cf.fingerprintColumns();
+            canonical.add(cf);
+        }
+        return canonical;
+    }
+}
@@ -0,0 +1,217 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import main.CanonicalFile;
+import main.FingerprintColumns;
+import main.FingerprintIndex;
+import main.SignalMatcher;
+
+/**
+ * Finds the packed distance threshold that best agrees with the
+ * Euclidean limit of SignalMatcher, over every pair of fingerprints the
+ * matcher would compare, and times both distances
+ * Reference songs are generated and each query is a reference shifted by
+ * a fraction of a chunk with noise added, so both near and far pairs
+ * occur; WAV files given as arguments are used as references instead
+ * Usage: java bench.PackedDistanceCalibration [reference WAVs...]
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class PackedDistanceCalibration {
+    /**
+     * Largest packed distance
+     */
+    private static final int PACKED_DISTANCE_LIMIT = 630;
+    /**
+     * Number of generated reference songs
+     */
+    private static final int SONGS = 8;
+    /**
+     * Length of each generated song
+     */
+    private static final double SECONDS = 30;
+    /**
+     * Standard deviations of the noise added to queries
+     */
+    private static final double[] NOISE = {0, 500, 2000, 5000};
+    /**
+     * Number of thresholds listed on each side of the best
+     */
+    private static final int TABLE_SPAN = 4;
+
+    /**
+     * Runs the calibration
+     * @param args Reference WAV files, or none to generate songs
+     * @throws IOException If a WAV file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(42);
+        ArrayList<short[]> songs = new ArrayList<short[]>();
+        if(args.length == 0){
+            for(int s = 0; s < SONGS; s++){
+                songs.add(SyntheticAudio.song(s + 1, 11025, SECONDS));
+            }
+        }
+        ArrayList<CanonicalFile> refs = new ArrayList<CanonicalFile>();
+        ArrayList<CanonicalFile> queries = new ArrayList<CanonicalFile>();
+        for(String path : args){
+            File file = new File(path);
+            refs.add(fingerprinted(new CanonicalFile(file.getName(), file)));
+        }
+        for(int s = 0; s < songs.size(); s++){
+            refs.add(fingerprint("ref" + s, songs.get(s)));
+        }
+        // Queries are noisy, shifted copies of generated songs or of the
+        // indexed files themselves
+        for(int q = 0; q < refs.size(); q++){
+            double noise = NOISE[q % NOISE.length];
+            if(q < args.length){
+                queries.add(refs.get(q));
+                continue;
+            }
+            short[] song = songs.get(q - args.length);
+            int shift = random.nextInt(CanonicalFile.SAMPLES_PER_CHUNK);
+            short[] query = new short[song.length - shift];
+            for(int i = 0; i < query.length; i++){
+                double v = song[i + shift] + random.nextGaussian() * noise;
+                query[i] = (short) Math.max(-32768, Math.min(32767, v));
+            }
+            queries.add(fingerprint("query" + q, query));
+        }
+        FingerprintIndex index = FingerprintIndex.build(refs);
+
+        // Pairs the matcher would compare, by packed distance, split by
+        // whether they are within the Euclidean limit
+        long[] near = new long[PACKED_DISTANCE_LIMIT + 1];
+        long[] far = new long[PACKED_DISTANCE_LIMIT + 1];
+        long pairs = 0;
+        for(CanonicalFile cf : queries){
+            FingerprintColumns query = cf.fingerprintColumns();
+            for(int i = 0; i < query.size(); i++){
+                int hash = query.hashOf(i);
+                int end = index.rangeEnd(hash,
+                        SignalMatcher.ACCEPTABLE_HASH_RANGE);
+                for(int p = index.rangeStart(hash,
+                        SignalMatcher.ACCEPTABLE_HASH_RANGE); p < end; p++){
+                    FingerprintColumns ref = index.getFile(index.fileOf(p));
+                    int chunk = index.chunkOf(p);
+                    int packed = ref.packedDistance(chunk, query, i);
+                    if(ref.distance(chunk, query, i) <=
+                            SignalMatcher.EUCLIDEAN_DISTANCE_MAX){
+                        near[packed]++;
+                    } else {
+                        far[packed]++;
+                    }
+                    pairs++;
+                }
+            }
+        }
+
+        // A threshold t accepts pairs with packed distance <= t
+        long nearTotal = 0;
+        for(long n : near){
+            nearTotal += n;
+        }
+        long rejectedNear = nearTotal;
+        long acceptedFar = 0;
+        int best = 0;
+        long bestErrors = Long.MAX_VALUE;
+        for(int t = 0; t <= PACKED_DISTANCE_LIMIT; t++){
+            rejectedNear -= near[t];
+            acceptedFar += far[t];
+            if(rejectedNear + acceptedFar < bestErrors){
+                bestErrors = rejectedNear + acceptedFar;
+                best = t;
+            }
+        }
+        System.out.println("pairs compared: " + pairs +
+                ", within " + SignalMatcher.EUCLIDEAN_DISTANCE_MAX + ": " +
+                nearTotal);
+        System.out.println("fewest disagreements at threshold " + best +
+                ": " + 100.0 * (pairs - bestErrors) / pairs + "% agree");
+        // Rejecting a near pair costs chainCompare a hit, so thresholds
+        // around the best are listed with both kinds of disagreement
+        System.out.println("threshold  near rejected  far accepted");
+        rejectedNear = nearTotal;
+        acceptedFar = 0;
+        for(int t = 0; t <= best + 2 * TABLE_SPAN; t++){
+            rejectedNear -= near[t];
+            acceptedFar += far[t];
+            if(t >= best - TABLE_SPAN){
+                System.out.printf("%9d  %12.2f%%  %11.3f%%%n", t,
+                        100.0 * rejectedNear / nearTotal,
+                        100.0 * acceptedFar / (pairs - nearTotal));
+            }
+        }
+        time(index, queries);
+    }
+
+    /**
+     * Times the Euclidean and the packed distance over the same pairs
+     * @param index Index of the references
+     * @param queries Query files
+     */
+    private static void time(FingerprintIndex index,
+            ArrayList<CanonicalFile> queries){
+        FingerprintColumns ref = index.getFile(0);
+        FingerprintColumns query = queries.get(0).fingerprintColumns();
+        int n = Math.min(ref.size(), query.size());
+        long sink = 0;
+        long euclideanBest = Long.MAX_VALUE;
+        long packedBest = Long.MAX_VALUE;
+        for(int r = 0; r < 10; r++){
+            long start = System.nanoTime();
+            for(int a = 0; a < n; a++){
+                for(int b = 0; b < n; b++){
+                    sink += ref.distance(a, query, b);
+                }
+            }
+            euclideanBest = Math.min(euclideanBest,
+                    System.nanoTime() - start);
+            start = System.nanoTime();
+            for(int a = 0; a < n; a++){
+                for(int b = 0; b < n; b++){
+                    sink += ref.packedDistance(a, query, b);
+                }
+            }
+            packedBest = Math.min(packedBest, System.nanoTime() - start);
+        }
+        long comparisons = (long) n * n;
+        System.out.println("Euclidean distance: " +
+                (double) euclideanBest / comparisons + " ns/pair");
+        System.out.println("Packed distance:    " +
+                (double) packedBest / comparisons + " ns/pair");
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    /**
+     * Fingerprints generated samples through a temporary WAV file
+     * @param name Name of the file
+     * @param samples Samples at 11025 Hz
+     * @return Canonical file with its fingerprints computed
+     * @throws IOException If the file cannot be written
+     */
+    private static CanonicalFile fingerprint(String name, short[] samples)
+            throws IOException {
+        File file = File.createTempFile(name + "-", ".wav");
+        file.deleteOnExit();
+        SyntheticAudio.writeWav(file, samples, 11025, 1);
+        return fingerprinted(new CanonicalFile(name, file));
+    }
+
+    /**
+     * Computes the fingerprints of a canonical file
+     * @param cf Canonical file
+     * @return The same file
+     */
+    private static CanonicalFile fingerprinted(CanonicalFile cf){
+        cf.fingerprintColumns();
+        return cf;
+    }
+}
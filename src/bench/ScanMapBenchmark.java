@@ -0,0 +1,125 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import main.CanonicalFile;
+import main.Fingerprint;
+import main.FingerprintColumns;
+import main.FingerprintIndex;
+import main.SignalMatcher;
+
+/**
+ * Measures the cost per query fingerprint of finding every indexed
+ * fingerprint within the acceptable hash range, comparing the original
+ * HashMap probe loop of SignalMatcher.scanMap with the range slice of
+ * a FingerprintIndex
+ * Usage: java bench.ScanMapBenchmark [indexed chunks] [queries]
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class ScanMapBenchmark {
+    /**
+     * Number of timed rounds after warm-up
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Runs the benchmark
+     * @param args Number of indexed chunks and number of queries
+     */
+    public static void main(String[] args){
+        int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 2600;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2600;
+        Random random = new Random(42);
+
+        Fingerprint[] indexed = SyntheticAudio.randomFingerprints(random,
+                "ref", chunks);
+        Fingerprint[] query = SyntheticAudio.randomFingerprints(random,
+                "query", queries);
+        HashMap<Integer, Fingerprint> map =
+                new HashMap<Integer, Fingerprint>();
+        for(Fingerprint f : indexed){
+            map.put(f.hashCode(), f);
+        }
+        ArrayList<CanonicalFile> files = new ArrayList<CanonicalFile>();
+        files.add(new CanonicalFile(
+                FingerprintColumns.of("ref", indexed)));
+        FingerprintIndex index = FingerprintIndex.build(files);
+
+        // Warm-up so both loops are compiled before they are timed
+        for(int r = 0; r < ROUNDS; r++){
+            hashMapScan(map, query);
+            rangeScan(index, query);
+        }
+        long mapBest = Long.MAX_VALUE;
+        long rangeBest = Long.MAX_VALUE;
+        long sink = 0;
+        for(int r = 0; r < ROUNDS; r++){
+            long start = System.nanoTime();
+            sink += hashMapScan(map, query);
+            mapBest = Math.min(mapBest, System.nanoTime() - start);
+            start = System.nanoTime();
+            sink += rangeScan(index, query);
+            rangeBest = Math.min(rangeBest, System.nanoTime() - start);
+        }
+        System.out.println("indexed chunks: " + chunks +
+                ", distinct hashes: " + map.size() +
+                ", postings: " + index.size());
+        System.out.println("HashMap scanMap: " +
+                (mapBest / queries) + " ns/query");
+        System.out.println("Range slice:     " +
+                (rangeBest / queries) + " ns/query");
+        System.out.println("(candidates seen: " + sink + ")");
+    }
+
+    /**
+     * Probes the map the way the original scanMap did
+     * @param map Fingerprints keyed by hashCode
+     * @param query Query fingerprints
+     * @return Number of candidates found
+     */
+    private static long hashMapScan(HashMap<Integer, Fingerprint> map,
+            Fingerprint[] query){
+        long found = 0;
+        for(Fingerprint q : query){
+            int hash = q.hashCode();
+            ArrayList<Fingerprint> matches = new ArrayList<Fingerprint>();
+            for(int i = Math.max(0, hash - SignalMatcher.ACCEPTABLE_HASH_RANGE);
+                    i <= hash + SignalMatcher.ACCEPTABLE_HASH_RANGE; i++){
+                if(map.containsKey(i)){
+                    Fingerprint match = map.get(i);
+                    if(Math.abs(match.hashCode() - hash) <=
+                            SignalMatcher.ACCEPTABLE_HASH_RANGE)
+                        matches.add(match);
+                }
+            }
+            found += matches.size();
+        }
+        return found;
+    }
+
+    /**
+     * Walks the range slice of the index for every query
+     * @param index Index of fingerprints
+     * @param query Query fingerprints
+     * @return Number of candidates found
+     */
+    private static long rangeScan(FingerprintIndex index,
+            Fingerprint[] query){
+        long found = 0;
+        for(Fingerprint q : query){
+            int hash = q.hashCode();
+            int end = index.rangeEnd(hash,
+                    SignalMatcher.ACCEPTABLE_HASH_RANGE);
+            for(int p = index.rangeStart(hash,
+                    SignalMatcher.ACCEPTABLE_HASH_RANGE); p < end; p++){
+                found += index.chunkOf(p) >= 0 ? 1 : 0;
+            }
+        }
+        return found;
+    }
+}
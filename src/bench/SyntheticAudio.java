@@ -0,0 +1,156 @@
+package bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import main.Fingerprint;
+
+/**
+ * Generates reproducible WAV files for the benchmarks, so that they
+ * can run offline without any real music
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class SyntheticAudio {
+    /**
+     * Creates linked fingerprints with random bands, for benchmarks of
+     * index scans that do not need real audio
+     * @param random Source of randomness
+     * @param name Name of their file
+     * @param count Number of fingerprints
+     * @return Array of fingerprints
+     */
+    public static Fingerprint[] randomFingerprints(Random random,
+            String name, int count){
+        Fingerprint[] fc = new Fingerprint[count];
+        for(int i = 0; i < count; i++){
+            int[] bands = new int[Fingerprint.NUMBER_OF_BANDS];
+            for(int b = 0; b < bands.length; b++){
+                bands[b] = random.nextInt(Fingerprint.HASH_BUCKETS);
+            }
+            fc[i] = new Fingerprint(bands, name, i);
+            if(i > 0){
+                fc[i-1].addNext(fc[i]);
+            }
+        }
+        return fc;
+    }
+
+    /**
+     * Generates the samples of a song: a few slowly sweeping tones with
+     * a changing envelope and a little noise, different for every seed
+     * @param seed Seed of the song
+     * @param sampleRate Samples per second
+     * @param seconds Length of the song
+     * @return Samples between -32768 and 32767
+     */
+    public static short[] song(long seed, int sampleRate, double seconds){
+        Random random = new Random(seed);
+        int count = (int) (sampleRate * seconds);
+        short[] samples = new short[count];
+        double f1 = 200 + random.nextInt(800);
+        double f2 = 1000 + random.nextInt(2000);
+        double f3 = 100 + random.nextInt(3000);
+        double rate = 1 + random.nextInt(3);
+        for(int i = 0; i < count; i++){
+            double t = (double) i / sampleRate;
+            double envelope = 0.5 + 0.5 * Math.sin(t * rate);
+            double v = 0.4 * envelope *
+                    Math.sin(2 * Math.PI * f1 * t *
+                            (1 + 0.05 * Math.sin(t * 3)))
+                    + 0.3 * Math.sin(2 * Math.PI *
+                            (f2 + 200 * Math.sin(t)) * t)
+                    + 0.2 * Math.sin(2 * Math.PI * f3 * t *
+                            (1 + 0.3 * Math.sin(t / 2)))
+                    + 0.05 * (random.nextDouble() - 0.5);
+            samples[i] = (short) (v * 28000);
+        }
+        return samples;
+    }
+
+    /**
+     * Writes mono samples as a 16-bit WAV file, copying them to every
+     * channel
+     * @param file File to write
+     * @param samples Samples of the song
+     * @param sampleRate Samples per second
+     * @param channels Number of channels, 1 or 2
+     * @throws IOException If the file cannot be written
+     */
+    public static void writeWav(File file, short[] samples, int sampleRate,
+            int channels) throws IOException {
+        int dataSize = samples.length * 2 * channels;
+        OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(file));
+        try {
+            out.write(new byte[]{'R', 'I', 'F', 'F'});
+            writeInt(out, 36 + dataSize);
+            out.write(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+            writeInt(out, 16);
+            writeShort(out, 1);
+            writeShort(out, channels);
+            writeInt(out, sampleRate);
+            writeInt(out, sampleRate * 2 * channels);
+            writeShort(out, 2 * channels);
+            writeShort(out, 16);
+            out.write(new byte[]{'d', 'a', 't', 'a'});
+            writeInt(out, dataSize);
+            for(short s : samples){
+                for(int c = 0; c < channels; c++){
+                    writeShort(out, s);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a generated song to a temporary WAV file that is deleted
+     * when the JVM exits
+     * @param seed Seed of the song
+     * @param sampleRate Samples per second
+     * @param channels Number of channels
+     * @param seconds Length of the song
+     * @return The WAV file
+     * @throws IOException If the file cannot be written
+     */
+    public static File tempWav(long seed, int sampleRate, int channels,
+            double seconds) throws IOException {
+        File file = File.createTempFile("song-" + seed + "-", ".wav");
+        file.deleteOnExit();
+        writeWav(file, song(seed, sampleRate, seconds), sampleRate,
+                channels);
+        return file;
+    }
+
+    /**
+     * Writes a little-endian int
+     * @param out Stream
+     * @param v Value
+     * @throws IOException If the stream cannot be written
+     */
+    private static void writeInt(OutputStream out, int v)
+            throws IOException {
+        writeShort(out, v);
+        writeShort(out, v >> 16);
+    }
+
+    /**
+     * Writes a little-endian short
+     * @param out Stream
+     * @param v Value
+     * @throws IOException If the stream cannot be written
+     */
+    private static void writeShort(OutputStream out, int v)
+            throws IOException {
+        out.write(v & 0xff);
+        out.write((v >> 8) & 0xff);
+    }
+}
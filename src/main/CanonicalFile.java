@@ -2,16 +2,15 @@ package main;
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 
 /**
@@ -31,6 +30,18 @@ public class CanonicalFile {
      * Number of samples in a chunk
      */
     public static final int SAMPLES_PER_CHUNK = 1024;
+    /**
+     * Sample rate that every file is fingerprinted at
+     */
+    public static final int CANONICAL_SAMPLE_RATE = 11025;
+    /**
+     * Largest number of PCM bytes mapped into memory at once
+     */
+    private static final long MAP_WINDOW = 1L << 28;
+    /**
+     * Size of the buffer on a decoder's standard output
+     */
+    private static final int STREAM_BUFFER = 64 * 1024;
     /**
      * Formatted audio file
      */
@@ -55,6 +66,19 @@ public class CanonicalFile {
      * Number of chunks that need to be converted to Fingerprints
      */
     private int numChunks;
+    /**
+     * Fingerprints of this file, computed on first use
+     */
+    private FingerprintColumns columns;
+    /**
+     * Command that writes this file as a WAV file to standard output,
+     * or null if the file is on disk
+     */
+    private List<String> decoderCommand;
+    /**
+     * WAV stream this file is read from, or null
+     */
+    private InputStream stream;
 
     /**
      * Constructor for a CanonicalFile
@@ -71,6 +95,49 @@ public class CanonicalFile {
         checkCorrect();
     }
 
+    /**
+     * Constructor for a CanonicalFile read from the standard output of
+     * a decoder while it runs, instead of from a converted file on disk
+     * @param name Name of file
+     * @param decoderCommand Command that writes a WAV file to
+     * standard output
+     */
+    public CanonicalFile(String name, List<String> decoderCommand){
+        this.baseFileName = name;
+        this.decoderCommand = decoderCommand;
+    }
+
+    /**
+     * Constructor for a CanonicalFile read from a WAV stream, such as
+     * the body of a request to a MatchServer
+     * @param name Name of file
+     * @param wav Stream of a WAV file, read when the file is
+     * fingerprinted
+     */
+    public CanonicalFile(String name, InputStream wav){
+        this.baseFileName = name;
+        this.stream = wav;
+    }
+
+    /**
+     * Constructor for a CanonicalFile whose fingerprints are already
+     * known, e.g. from a FingerprintCatalog
+     * @param columns Fingerprints of the file
+     */
+    public CanonicalFile(FingerprintColumns columns){
+        this.baseFileName = columns.getName();
+        this.columns = columns;
+        this.numChunks = columns.size();
+    }
+
+    /**
+     * Gets the name of the file
+     * @return Name of file
+     */
+    public String getName(){
+        return baseFileName;
+    }
+
     /**
      * Checks if the audio file has been formatted correctly
      * Exits if the file has not been formatted correctly or doesn't exist
@@ -82,9 +149,7 @@ public class CanonicalFile {
         try {
             fileFormat = AudioSystem.getAudioFileFormat(file);
         } catch (Exception e){
-            System.err.println("ERROR: " + baseFileName +
-                    " does not exist");
-            System.exit(1);
+            Fatal.error(baseFileName + " does not exist");
         }
 
         AudioFormat format = fileFormat.getFormat();
@@ -94,8 +159,10 @@ public class CanonicalFile {
         sampleRate = format.getSampleRate();
 
         if 	((!format.isBigEndian()) && 
-                format.getEncoding().equals
-                (AudioFormat.Encoding.PCM_SIGNED) &&
+                (format.getEncoding().equals
+                (AudioFormat.Encoding.PCM_SIGNED) ||
+                (sampleSize == 8 && format.getEncoding().equals
+                (AudioFormat.Encoding.PCM_UNSIGNED))) &&
                 (channels == 1 || channels == 2) &&
                 (sampleSize == 8 || sampleSize == 16) &&
                 (acceptableSampleRates.contains(sampleRate)) &&
@@ -103,134 +170,212 @@ public class CanonicalFile {
 
         }
         else {
-            System.err.println("ERROR: " + baseFileName +
-                    " is not in a supported format");
-            System.exit(1);
+            Fatal.error(baseFileName + " is not in a supported format");
         } 
 
     }
 
     /**
      * Takes the byte data of a formatted audio file and converts
-     * it into an array of fingerprints
+     * it into an array of linked fingerprints
      * @return Array of fingerprints
      */
     public Fingerprint[] fingerprintFile(){
+        return fingerprintColumns().toFingerprints();
+    }
+
+    /**
+     * Takes the byte data of a formatted audio file and converts
+     * it into the columns of its fingerprints
+     * The fingerprints are computed once and reused on later calls
+     * @return Fingerprints of every chunk
+     */
+    public FingerprintColumns fingerprintColumns(){
+        if(columns == null){
+            FingerprintEvent event = new FingerprintEvent();
+            event.begin();
+            columns = readColumns();
+            if(event.shouldCommit()){
+                event.file = baseFileName;
+                event.chunks = columns.size();
+                event.commit();
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Reads the formatted audio file and fingerprints every chunk
+     * The PCM data is read through memory-mapped windows of whole
+     * chunks, downmixed to mono and, if the file is not at the
+     * canonical sample rate, resampled to it as it is read
+     * @return Fingerprints of every chunk
+     */
+    private FingerprintColumns readColumns(){
+        if(decoderCommand != null){
+            return readDecoderColumns();
+        }
+        if(stream != null){
+            try{
+                return readWav(new BufferedInputStream(stream, 
+                        STREAM_BUFFER));
+            }
+            catch (IOException e) {
+                Fatal.error(e.getMessage());
+                return null;
+            }
+        }
+        WavReader wav = null;
         try{
-            InputStream audioSrc = 
-                    new FileInputStream(file.getAbsolutePath());
-            InputStream bufferedIn = new BufferedInputStream(audioSrc);
-            AudioInputStream fileIn = 
-                    AudioSystem.getAudioInputStream(bufferedIn);
-            int pcmByteSize = (int) (fileIn.getFrameLength() * 
-                    channels * (sampleSize/8));
-            fileIn.skip(44);
-            int bytesToReadPerChunk = SAMPLES_PER_CHUNK * 
-                    (sampleSize / 8) * channels;
-            numChunks = (int) 
-                    Math.ceil((double)pcmByteSize / bytesToReadPerChunk);
-            byte[] bytes = new byte[bytesToReadPerChunk];
-            boolean repeat = true;
-            Fingerprint[] fc = new Fingerprint[numChunks];
-            int i = 0;
-
-            /**
-             * Reads in bytes from the formatted audio file,
-             * converts those bytes into samples, passes those
-             * samples to the Fingerprint constructor, and
-             * establishes links between all of the fingerprints
-             * in sequential order
-             */
-            while(repeat){
-                int read = fileIn.read(bytes, 0, bytesToReadPerChunk);
-                if(read == -1){
-                    break;
-                } else if(read != bytesToReadPerChunk){
-                    fillByteArray(bytes, read);
-                    repeat = false;
-                }
-                fc[i] = new Fingerprint(convertToMonoDouble(bytes), 
-                        baseFileName, i);
-                if (i > 0){
-                    fc[i-1].addNext(fc[i]);
+            wav = new WavReader(file);
+            PcmDecoder decoder = new PcmDecoder(sampleSize, channels);
+            int frameSize = decoder.getFrameSize();
+            int bytesPerChunk = SAMPLES_PER_CHUNK * frameSize;
+            long pcmByteSize = wav.getDataLength();
+            numChunks = (int) Math.ceil((double)pcmByteSize / 
+                    bytesPerChunk * CANONICAL_SAMPLE_RATE / sampleRate);
+            long window = (MAP_WINDOW / bytesPerChunk) * bytesPerChunk;
+            // Reused for every chunk, so no chunk allocates
+            double[] samples = new double[SAMPLES_PER_CHUNK];
+            FingerprintBuilder builder = 
+                    new FingerprintBuilder(baseFileName, numChunks);
+            SampleSink sink = builder;
+            if((int) sampleRate != CANONICAL_SAMPLE_RATE){
+                sink = new Resampler((int) sampleRate, 
+                        CANONICAL_SAMPLE_RATE, builder);
+            }
+
+            for(long offset = 0; offset < pcmByteSize; offset += window){
+                ByteBuffer data = wav.map(offset, 
+                        Math.min(window, pcmByteSize - offset));
+                for(int p = 0; p < data.limit(); p += bytesPerChunk){
+                    int frames = Math.min(SAMPLES_PER_CHUNK, 
+                            (data.limit() - p) / frameSize);
+                    decoder.decode(data, p, samples, frames);
+                    sink.write(samples, frames);
                 }
-                i++;
             }
 
-            fileIn.close();
-            return fc;
+            sink.finish();
+            return builder.getColumns();
         } 
 
         catch (Exception e) {
-            System.err.println("ERROR: " + e);
-            System.exit(1);
+            Fatal.error(e.toString());
             return null;
         }
+
+        finally {
+            closeQuietly(wav);
+        }
     }
 
     /**
-     * Fills an array of bytes with zeroes starting
-     * at index offset
-     * @param bytes Array of bytes
-     * @param offset Index of the array of bytes where fill starts
+     * Runs the decoder and fingerprints every chunk of its output as it
+     * arrives, so decoding and fingerprinting overlap and nothing is
+     * written to disk
+     * @return Fingerprints of every chunk
      */
-    private void fillByteArray(byte[] bytes, int offset){
-        for(int i = offset; i < bytes.length; i++){
-            bytes[i] = 0;
+    private FingerprintColumns readDecoderColumns(){
+        DecoderProcess process = null;
+        try{
+            process = new DecoderProcess(decoderCommand, baseFileName, 
+                    true);
+            return readDecoderOutput(process);
+        } 
+
+        catch (Exception e) {
+            Fatal.error(e.getMessage());
+            return null;
+        }
+
+        finally {
+            if(process != null){
+                process.close();
+            }
         }
     }
 
     /**
-     * Converts a byte array to an array of samples
-     * of the right format
-     * @param bytes Array of bytes
-     * @return Array of samples
+     * Fingerprints the output of a running decoder
+     * @param process Running decoder
+     * @return Fingerprints of every chunk
+     * @throws IOException If the output cannot be read or the decoder
+     * fails
+     * @throws InterruptedException If interrupted while waiting for the
+     * decoder to exit
      */
-    private double[] convertToMonoDouble(byte[] bytes){
-        double[] samples = new double[SAMPLES_PER_CHUNK];
-        int bytesPerSample = (sampleSize / 8) * channels;
-        for(int i  = 0; i < SAMPLES_PER_CHUNK; i++){
-            samples[i] = getSample(bytes, i*bytesPerSample);
+    private FingerprintColumns readDecoderOutput(DecoderProcess process)
+            throws IOException, InterruptedException {
+        try{
+            FingerprintColumns columns = readWav(new BufferedInputStream(
+                    process.getOutput(), STREAM_BUFFER));
+            process.waitFor();
+            return columns;
+        }
+
+        catch (IOException e) {
+            // A decoder killed for taking too long leaves its output
+            // cut short, which is not the problem to report
+            process.checkTime();
+            throw e;
         }
-        return samples;
     }
 
     /**
-     * Given an array of bytes and an index, converts
-     * bytesPerChannel bytes into a sample of the right
-     * format starting at the given index
-     * @param bytes An array of bytes
-     * @param index An index in the array of bytes
-     * @return A sample
+     * Fingerprints every chunk of a WAV stream as it arrives
+     * @param in Stream of a WAV file
+     * @return Fingerprints of every chunk
+     * @throws IOException If the stream cannot be read or is not a
+     * supported WAV file
      */
-    private double getSample(byte[] bytes, int index){
-        int bytesPerChannel = sampleSize / 8;
-        if(channels == 1){ 
-            return bytesToDouble(bytes, index, bytesPerChannel);
-        } else {
-            return (bytesToDouble(bytes, index, bytesPerChannel) +
-                    bytesToDouble(bytes, index + bytesPerChannel, 
-                            bytesPerChannel))
-                            / 2.0;
+    private FingerprintColumns readWav(InputStream in) throws IOException {
+        WavStream wav = new WavStream(in, baseFileName);
+        sampleSize = wav.getSampleSize();
+        channels = wav.getChannels();
+        sampleRate = wav.getSampleRate();
+        if(!((channels == 1 || channels == 2) &&
+                (sampleSize == 8 || sampleSize == 16) &&
+                Resampler.supports((int) sampleRate, 
+                        CANONICAL_SAMPLE_RATE))) {
+            Fatal.error(baseFileName + " is not in a supported format");
         }
+
+        PcmDecoder decoder = new PcmDecoder(sampleSize, channels);
+        int frameSize = decoder.getFrameSize();
+        byte[] bytes = new byte[SAMPLES_PER_CHUNK * frameSize];
+        double[] samples = new double[SAMPLES_PER_CHUNK];
+        FingerprintBuilder builder = 
+                new FingerprintBuilder(baseFileName, 0);
+        SampleSink sink = builder;
+        if((int) sampleRate != CANONICAL_SAMPLE_RATE){
+            sink = new Resampler((int) sampleRate, 
+                    CANONICAL_SAMPLE_RATE, builder);
+        }
+
+        int read;
+        while((read = wav.read(bytes, bytes.length)) > 0){
+            int frames = read / frameSize;
+            decoder.decode(bytes, 0, samples, frames);
+            sink.write(samples, frames);
+        }
+        sink.finish();
+        numChunks = builder.getColumns().size();
+        return builder.getColumns();
     }
 
     /**
-     * Given an array of bytes, an index startIndex, and a length len,
-     * converts len bytes into a sample of the right format starting 
-     * at startIndex
-     * @param arr Array of bytes
-     * @param startIndex Index in array of bytes
-     * @param len Number of bytes to convert into a sample
-     * @return
+     * Closes the given reader, ignoring any error
+     * @param wav Reader or null
      */
-    private double bytesToDouble(byte[] arr, int startIndex, int len){
-        ByteBuffer bb = ByteBuffer.allocate(len);
-        bb.order(ByteOrder.LITTLE_ENDIAN);
-        for(int i = 0; i < len; i++){
-            bb.put(arr[startIndex+i]);
+    private static void closeQuietly(WavReader wav){
+        if(wav == null){
+            return;
+        }
+        try {
+            wav.close();
+        } catch (IOException e){
+            // Nothing left to do with the reader
         }
-
-        return (double)bb.getShort(0);   	 
     }
 }
@@ -0,0 +1,55 @@
+package main;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The indexed files a query file has been confirmed to match, shared by
+ * the threads searching different shards of the query
+ * Only the first match of a pair of files is reported, so once a shard
+ * confirms a match every later query chunk of that pair is covered, and
+ * later shards skip the file before computing any distance
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class ConfirmedMatches {
+    /**
+     * For each indexed file, one more than the earliest shard that
+     * matched it, or 0 if no shard has
+     */
+    private final AtomicIntegerArray earliest;
+
+    /**
+     * Constructor for a ConfirmedMatches with no matches
+     * @param fileCount Number of indexed files
+     */
+    public ConfirmedMatches(int fileCount){
+        earliest = new AtomicIntegerArray(fileCount);
+    }
+
+    /**
+     * Checks whether a shard before the given one matched the file
+     * @param id Indexed file id
+     * @param shard Shard of the query, counted from its start
+     * @return True if an earlier shard matched the file; otherwise,
+     * false
+     */
+    public boolean isCovered(int id, int shard){
+        int e = earliest.get(id);
+        return e != 0 && e <= shard;
+    }
+
+    /**
+     * Records that the given shard matched the file
+     * @param id Indexed file id
+     * @param shard Shard of the query, counted from its start
+     */
+    public void confirm(int id, int shard){
+        int e = earliest.get(id);
+        while((e == 0 || e > shard + 1) &&
+                !earliest.compareAndSet(id, e, shard + 1)){
+            e = earliest.get(id);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package main;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one run of an external decoder, such as
+ * LAME.convert or OGGDEC.convert, or a decoder streamed into
+ * CanonicalFile; its duration is the time the decoder ran
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+@Name("signalmatcher.Conversion")
+@Label("Conversion")
+@Category("SignalMatcher")
+@Description("Run of an external decoder")
+public class ConversionEvent extends jdk.jfr.Event {
+    /**
+     * Name of the file decoded
+     */
+    @Label("File")
+    public String file;
+    /**
+     * Command line of the decoder
+     */
+    @Label("Command")
+    public String command;
+    /**
+     * Exit code of the decoder, or -1 if it was killed or not waited for
+     */
+    @Label("Exit Code")
+    public int exitCode = -1;
+    /**
+     * Was the decoder killed for running out of time?
+     */
+    @Label("Timed Out")
+    public boolean timedOut;
+}
@@ -0,0 +1,108 @@
+package main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts and fingerprints several files at the same time
+ * Most of the time spent on a file goes to its decoder process, so
+ * running one file per core keeps every core busy instead of one
+ * The number of files converted at once is set by the
+ * signalmatcher.jobs system property and defaults to the number of cores
+ * The threads are started once and shared by every call, so files
+ * converted for several requests at once still run CONCURRENCY at a time
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class ConversionPool {
+    /**
+     * Number of files converted at the same time
+     */
+    public static final int CONCURRENCY = Math.max(1, Integer.getInteger(
+            "signalmatcher.jobs",
+            Runtime.getRuntime().availableProcessors()));
+    /**
+     * Threads files are converted on
+     */
+    private static final ExecutorService CONVERTERS =
+            Executors.newFixedThreadPool(CONCURRENCY,
+                    daemonThreads("converter"));
+
+    /**
+     * Makes numbered threads that do not keep the program running
+     * @param name Name of the threads, before their number
+     * @return Factory of daemon threads
+     */
+    static ThreadFactory daemonThreads(final String name){
+        return new ThreadFactory(){
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, name + "-" +
+                        count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Converts every file to the canonical file type and fingerprints it
+     * Conversions run in parallel, but the results are in the same order
+     * as files
+     * @param files Files to convert
+     * @param dir Directory for converted files
+     * @return Canonical file of each file, with its fingerprints computed
+     */
+    public static ArrayList<CanonicalFile> convertAll(
+            List<FileWrapper> files, final File dir){
+        ArrayList<CanonicalFile> canonical = new ArrayList<CanonicalFile>();
+        if(files.isEmpty()){
+            return canonical;
+        }
+        long start = Stats.start();
+        ArrayList<Future<CanonicalFile>> pending =
+                new ArrayList<Future<CanonicalFile>>();
+        try{
+            for(final FileWrapper fw : files){
+                pending.add(CONVERTERS.submit(new Callable<CanonicalFile>(){
+                    @Override
+                    public CanonicalFile call(){
+                        CanonicalFile cf = fw.convert(dir);
+                        cf.fingerprintColumns();
+                        Stats.FILES_CONVERTED.add(1);
+                        return cf;
+                    }
+                }));
+            }
+            for(Future<CanonicalFile> f : pending){
+                canonical.add(f.get());
+            }
+        }
+        catch (ExecutionException e){
+            Fatal.error(String.valueOf(e.getCause()));
+        }
+        catch (InterruptedException e){
+            Fatal.error(e.toString());
+        }
+        finally {
+            // Stops the rest of the files after an error
+            for(Future<CanonicalFile> f : pending){
+                f.cancel(true);
+            }
+        }
+        Stats.CONVERSION.stop(start);
+        return canonical;
+    }
+}
@@ -0,0 +1,198 @@
+package main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an external decoder, such as lame or oggdec, with a time limit
+ * The decoder's standard error goes to ours, and its standard output is
+ * either read by the caller or drained and discarded, so a decoder can
+ * never block on a full pipe
+ * A decoder still running when its time is up is killed
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class DecoderProcess implements Closeable {
+    /**
+     * Seconds a decoder may run before it is killed, set by the
+     * signalmatcher.timeout system property
+     */
+    public static final long TIMEOUT_SECONDS =
+            Long.getLong("signalmatcher.timeout", 300);
+    /**
+     * Kills decoders that run out of time
+     */
+    private static final ScheduledExecutorService WATCHDOG =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads());
+    /**
+     * Running decoder
+     */
+    private final Process process;
+    /**
+     * Name of the file being decoded, for error messages
+     */
+    private final String name;
+    /**
+     * Kills the decoder when its time is up
+     */
+    private final ScheduledFuture<?> deadline;
+    /**
+     * Was the decoder killed for running out of time?
+     */
+    private volatile boolean timedOut = false;
+    /**
+     * Time the decoder was started, for Stats.DECODERS
+     */
+    private final long started = Stats.start();
+    /**
+     * Flight recorder event of this run of the decoder
+     */
+    private final ConversionEvent event = new ConversionEvent();
+
+    /**
+     * Constructor for a DecoderProcess, which starts the decoder
+     * @param command Command line of the decoder
+     * @param name Name of the file being decoded
+     * @param readOutput True if the caller reads the decoder's standard
+     * output; otherwise, it is discarded
+     * @throws IOException If the decoder cannot be started
+     */
+    public DecoderProcess(List<String> command, String name,
+            boolean readOutput) throws IOException {
+        this.name = name;
+        event.begin();
+        if(event.isEnabled()){
+            event.file = name;
+            event.command = String.join(" ", command);
+        }
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        process = pb.start();
+        if(!readOutput){
+            drain(process.getInputStream());
+        }
+        deadline = WATCHDOG.schedule(new Runnable(){
+            @Override
+            public void run(){
+                timedOut = true;
+                process.destroyForcibly();
+            }
+        }, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs a decoder that writes its result to a file, waiting for it
+     * to finish
+     * Prints an error and exits if the decoder fails or runs out of time
+     * @param command Command line of the decoder
+     * @param name Name of the file being decoded
+     */
+    public static void run(List<String> command, String name){
+        DecoderProcess decoder = null;
+        try{
+            decoder = new DecoderProcess(command, name, false);
+            decoder.waitFor();
+        }
+        catch (Exception e){
+            Fatal.error(e.getMessage());
+        }
+        finally {
+            if(decoder != null){
+                decoder.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the decoder's standard output
+     * @return Standard output of the decoder
+     */
+    public InputStream getOutput(){
+        return process.getInputStream();
+    }
+
+    /**
+     * Waits for the decoder to exit
+     * @throws IOException If the decoder ran out of time or failed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void waitFor() throws IOException, InterruptedException {
+        int status = process.waitFor();
+        event.exitCode = status;
+        checkTime();
+        if(status != 0){
+            throw new IOException(name + " could not be decoded");
+        }
+    }
+
+    /**
+     * Checks that the decoder was not killed for running out of time,
+     * which also cuts its output short
+     * @throws IOException If the decoder ran out of time
+     */
+    public void checkTime() throws IOException {
+        if(timedOut){
+            throw new IOException(name + " took more than " +
+                    TIMEOUT_SECONDS + " seconds to decode");
+        }
+    }
+
+    /**
+     * Kills the decoder if it is still running
+     */
+    public void close(){
+        deadline.cancel(false);
+        process.destroy();
+        Stats.DECODERS.stop(started);
+        event.timedOut = timedOut;
+        event.commit();
+    }
+
+    /**
+     * Reads and discards everything on the given stream on a background
+     * thread
+     * @param in Stream to drain
+     */
+    private static void drain(final InputStream in){
+        Thread drainer = new Thread(new Runnable(){
+            @Override
+            public void run(){
+                byte[] buffer = new byte[8192];
+                try{
+                    while(in.read(buffer) >= 0){
+                        // discard
+                    }
+                }
+                catch (IOException e){
+                    // The decoder has gone; nothing left to drain
+                }
+            }
+        }, "decoder-drain");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Makes threads that do not keep the program running
+     * @return Factory of daemon threads
+     */
+    private static ThreadFactory daemonThreads(){
+        return new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "decoder-watchdog");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -30,7 +30,8 @@ public class EuclideanValue {
         int output = 0 ;
 
         for (int i = 0; i < array1.length; i++) {
-            int diffSquare = (int)Math.pow((array1[i] - array2[i]), 2);
+            int diff = array1[i] - array2[i];
+            int diffSquare = diff * diff;
             output = output + diffSquare;
         }
 
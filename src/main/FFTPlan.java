@@ -0,0 +1,470 @@
+package main;
+
+/**
+ * A forward FFT of one fixed power-of-two size with its bit-reversal
+ * permutation and twiddle factors computed once up front
+ * transform gives exactly the same results as FFT.transform, since it
+ * performs the same arithmetic in the same order; only the Math.cos and
+ * Math.sin calls are moved out of the butterfly loop
+ * A plan holds no per-call state, but its tables are not worth sharing
+ * between cores, so forThread keeps one plan of each size per thread
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class FFTPlan {
+    /**
+     * One plan of the most recently used size for each thread
+     */
+    private static final ThreadLocal<FFTPlan> PLANS =
+            new ThreadLocal<FFTPlan>();
+    /**
+     * Number of samples transformed
+     */
+    private final int size;
+    /**
+     * Pairs of indices (swapFrom[n], swapTo[n]) exchanged by the
+     * bit-reversal permutation
+     */
+    private final int[] swapFrom;
+    /**
+     * See swapFrom
+     */
+    private final int[] swapTo;
+    /**
+     * cos of every butterfly angle; the angles of the stage combining
+     * spectra of length m start at index m - 1
+     */
+    private final double[] cos;
+    /**
+     * sin of every butterfly angle, laid out as cos
+     */
+    private final double[] sin;
+    /**
+     * Plan of half this size used by realTransform and halfMagnitudes,
+     * created on first use
+     */
+    private FFTPlan half;
+    /**
+     * cos(2 * pi * k / size) for k < size / 2, used with half
+     */
+    private double[] splitCos;
+    /**
+     * sin(2 * pi * k / size) for k < size / 2, used with half
+     */
+    private double[] splitSin;
+
+    /**
+     * Constructor for an FFTPlan
+     * @param size Number of samples, a power of two
+     */
+    public FFTPlan(int size){
+        if(size < 1 || (size & (size - 1)) != 0){
+            throw new IllegalArgumentException("FFT size " + size +
+                    " is not a power of two");
+        }
+        this.size = size;
+
+        // Same walk as FFT.complexToComplex, recording the swaps
+        int swaps = 0;
+        int[] from = new int[size];
+        int[] to = new int[size];
+        int i,j;
+        for (i=j=0; i < size; ++i) {
+            if (j>i) {
+                from[swaps] = i;
+                to[swaps] = j;
+                swaps++;
+            }
+            int m = size/2;
+            while (m>=1 && j>=m) {
+                j -= m;
+                m /= 2;
+            }
+            j += m;
+        }
+        swapFrom = new int[swaps];
+        swapTo = new int[swaps];
+        System.arraycopy(from, 0, swapFrom, 0, swaps);
+        System.arraycopy(to, 0, swapTo, 0, swaps);
+
+        // Same angles as FFT.complexToComplex with sign = 1
+        cos = new double[Math.max(1, size - 1)];
+        sin = new double[Math.max(1, size - 1)];
+        for(int m = 1; m < size; m *= 2){
+            double deltaAngle = Math.PI/m;
+            for(int k = 0; k < m; k++){
+                double angle = k*deltaAngle;
+                cos[m - 1 + k] = Math.cos(angle);
+                sin[m - 1 + k] = Math.sin(angle);
+            }
+        }
+    }
+
+    /**
+     * Gets this thread's plan of the given size
+     * @param size Number of samples, a power of two
+     * @return A plan of that size
+     */
+    public static FFTPlan forThread(int size){
+        FFTPlan plan = PLANS.get();
+        if(plan == null || plan.size != size){
+            plan = new FFTPlan(size);
+            PLANS.set(plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Gets the number of samples transformed
+     * @return Size of the plan
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Computes the spectrum of data into the given arrays, which must
+     * each hold at least size values
+     * Gives exactly the same output as FFT.transform
+     * @param data size real samples
+     * @param realOut Real part of the spectrum
+     * @param imagOut Imaginary part of the spectrum
+     * @param magnitude Magnitude of the spectrum divided by size
+     */
+    public void transform(double[] data, double[] realOut,
+            double[] imagOut, double[] magnitude){
+        System.arraycopy(data, 0, realOut, 0, size);
+        for(int n = 0; n < size; n++){
+            imagOut[n] = 0.0;
+        }
+        complexToComplex(realOut, imagOut);
+        for(int n = 0; n < size; n++){
+            magnitude[n] = (Math.sqrt(realOut[n]*realOut[n]
+                    + imagOut[n]*imagOut[n]))/size;
+        }
+    }
+
+    /**
+     * Computes the spectrum of real data with a complex FFT of half the
+     * size, filling the upper half of the outputs by symmetry
+     * Agrees with transform to within rounding: magnitudes differ by
+     * at most a few units in the last place
+     * @param data size real samples
+     * @param realOut Real part of the spectrum
+     * @param imagOut Imaginary part of the spectrum
+     * @param magnitude Magnitude of the spectrum divided by size
+     */
+    public void realTransform(double[] data, double[] realOut,
+            double[] imagOut, double[] magnitude){
+        if(size < 4){
+            transform(data, realOut, imagOut, magnitude);
+            return;
+        }
+        int m = size/2;
+        prepareHalf();
+        // Packs even samples as real parts and odd ones as imaginary
+        for(int n = 0; n < m; n++){
+            realOut[n] = data[2*n];
+            imagOut[n] = data[2*n + 1];
+        }
+        half.complexToComplex(realOut, imagOut);
+
+        // Splits the half-size spectrum Z into the spectrum X of data,
+        // two mirrored bins at a time
+        double zr = realOut[0];
+        double zi = imagOut[0];
+        realOut[0] = zr + zi;
+        imagOut[0] = 0.0;
+        realOut[m] = zr - zi;
+        imagOut[m] = 0.0;
+        for(int k = 1; k <= m/2; k++){
+            int l = m - k;
+            double ar = realOut[k];
+            double ai = imagOut[k];
+            double br = realOut[l];
+            double bi = imagOut[l];
+            split(k, ar, ai, br, bi, realOut, imagOut);
+            if(l != k){
+                split(l, br, bi, ar, ai, realOut, imagOut);
+            }
+        }
+        for(int k = 1; k < m; k++){
+            realOut[size - k] = realOut[k];
+            imagOut[size - k] = -imagOut[k];
+        }
+        for(int n = 0; n < size; n++){
+            magnitude[n] = (Math.sqrt(realOut[n]*realOut[n]
+                    + imagOut[n]*imagOut[n]))/size;
+        }
+    }
+
+    /**
+     * Computes only the magnitudes of the lower half of the spectrum of
+     * real data, which for real data mirrors the upper half
+     * Works in place in two scratch arrays of size/2 + 1 values, with no
+     * copies of the full spectrum; magnitudes agree with transform to
+     * within rounding, like realTransform's
+     * @param data size real samples
+     * @param real Scratch that receives the magnitude of bin k divided
+     * by size at index k, for 0 <= k <= size/2
+     * @param imag Scratch
+     */
+    public void halfMagnitudes(double[] data, double[] real,
+            double[] imag){
+        if(size < 4){
+            double[] full = new double[size];
+            transform(data, new double[size], new double[size], full);
+            System.arraycopy(full, 0, real, 0, size/2 + 1);
+            return;
+        }
+        int m = size/2;
+        prepareHalf();
+        for(int n = 0; n < m; n++){
+            real[n] = data[2*n];
+            imag[n] = data[2*n + 1];
+        }
+        half.complexToComplex(real, imag);
+
+        // Bins k and m - k are both read before either is overwritten
+        double zr = real[0];
+        double zi = imag[0];
+        real[0] = Math.abs(zr + zi)/size;
+        real[m] = Math.abs(zr - zi)/size;
+        for(int k = 1; k <= m/2; k++){
+            int l = m - k;
+            double ar = real[k];
+            double ai = imag[k];
+            double br = real[l];
+            double bi = imag[l];
+            real[k] = splitMagnitude(k, ar, ai, br, bi);
+            if(l != k){
+                real[l] = splitMagnitude(l, br, bi, ar, ai);
+            }
+        }
+    }
+
+    /**
+     * Computes the magnitudes of the lower half of the spectra of
+     * several chunks of real data in one pass
+     * Each chunk is packed into the half-size complex FFT as in
+     * halfMagnitudes, but the chunks are interleaved, value n of chunk c
+     * at index n * count + c, so each butterfly loads its twiddle factor
+     * once for all of them and works on count independent values; each
+     * chunk still goes through exactly the arithmetic of halfMagnitudes,
+     * so its magnitudes are the same
+     * @param chunks Chunks of size real samples
+     * @param from Index in chunks of the first chunk
+     * @param count Number of chunks
+     * @param real Scratch of at least (size/2 + 1) * count values that
+     * receives the magnitude of bin k of chunk c divided by size at
+     * index k * count + c, for 0 <= k <= size/2
+     * @param imag Scratch of at least (size/2 + 1) * count values
+     */
+    public void halfMagnitudesBatch(double[][] chunks, int from, int count,
+            double[] real, double[] imag){
+        int m = size/2;
+        if(size < 4){
+            double[] one = new double[m + 1];
+            for(int c = 0; c < count; c++){
+                halfMagnitudes(chunks[from + c], one, new double[m + 1]);
+                for(int k = 0; k <= m; k++){
+                    real[k*count + c] = one[k];
+                }
+            }
+            return;
+        }
+        prepareHalf();
+        for(int c = 0; c < count; c++){
+            double[] data = chunks[from + c];
+            for(int n = 0; n < m; n++){
+                real[n*count + c] = data[2*n];
+                imag[n*count + c] = data[2*n + 1];
+            }
+        }
+        half.complexToComplexBatch(real, imag, count);
+
+        for(int c = 0; c < count; c++){
+            double zr = real[c];
+            double zi = imag[c];
+            real[c] = Math.abs(zr + zi)/size;
+            real[m*count + c] = Math.abs(zr - zi)/size;
+            for(int k = 1; k <= m/2; k++){
+                int i = k*count + c;
+                int j = (m - k)*count + c;
+                double ar = real[i];
+                double ai = imag[i];
+                double br = real[j];
+                double bi = imag[j];
+                real[i] = splitMagnitude(k, ar, ai, br, bi);
+                if(j != i){
+                    real[j] = splitMagnitude(m - k, br, bi, ar, ai);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the half-size plan and split factors of realTransform and
+     * halfMagnitudes on first use
+     */
+    private void prepareHalf(){
+        if(half != null){
+            return;
+        }
+        int m = size/2;
+        half = new FFTPlan(m);
+        splitCos = new double[m];
+        splitSin = new double[m];
+        for(int k = 0; k < m; k++){
+            double angle = 2*Math.PI*k/size;
+            splitCos[k] = Math.cos(angle);
+            splitSin[k] = Math.sin(angle);
+        }
+    }
+
+    /**
+     * Computes the magnitude of bin k of the real spectrum divided by
+     * size, given bins k and size/2 - k of the packed half-size spectrum
+     * @param k Bin index, 0 < k < size/2
+     * @param ar Real part of packed bin k
+     * @param ai Imaginary part of packed bin k
+     * @param br Real part of packed bin size/2 - k
+     * @param bi Imaginary part of packed bin size/2 - k
+     * @return Magnitude of bin k divided by size
+     */
+    private double splitMagnitude(int k, double ar, double ai, double br,
+            double bi){
+        double er = (ar + br)*0.5;
+        double ei = (ai - bi)*0.5;
+        double or = (ai + bi)*0.5;
+        double oi = (br - ar)*0.5;
+        double c = splitCos[k];
+        double s = splitSin[k];
+        double xr = er + c*or - s*oi;
+        double xi = ei + c*oi + s*or;
+        return (Math.sqrt(xr*xr + xi*xi))/size;
+    }
+
+    /**
+     * Stores bin k of the real spectrum, given bins k and size/2 - k of
+     * the packed half-size spectrum
+     * @param k Bin index, 0 < k < size/2
+     * @param ar Real part of packed bin k
+     * @param ai Imaginary part of packed bin k
+     * @param br Real part of packed bin size/2 - k
+     * @param bi Imaginary part of packed bin size/2 - k
+     * @param realOut Real part of the spectrum
+     * @param imagOut Imaginary part of the spectrum
+     */
+    private void split(int k, double ar, double ai, double br, double bi,
+            double[] realOut, double[] imagOut){
+        // Even samples' spectrum: (A + conj(B)) / 2
+        double er = (ar + br)*0.5;
+        double ei = (ai - bi)*0.5;
+        // Odd samples' spectrum: (A - conj(B)) / 2i
+        double or = (ai + bi)*0.5;
+        double oi = (br - ar)*0.5;
+        double c = splitCos[k];
+        double s = splitSin[k];
+        realOut[k] = er + c*or - s*oi;
+        imagOut[k] = ei + c*oi + s*or;
+    }
+
+    /**
+     * Performs an in-place forward complex FFT of the first size values
+     * of real and imag, with the same arithmetic as
+     * FFT.complexToComplex(1, size, real, imag)
+     * @param real Real parts
+     * @param imag Imaginary parts
+     */
+    public void complexToComplex(double[] real, double[] imag){
+        for(int n = 0; n < swapFrom.length; n++){
+            int i = swapFrom[n];
+            int j = swapTo[n];
+            double tempr = real[j];
+            double tempi = imag[j];
+            real[j] = real[i];
+            imag[j] = imag[i];
+            real[i] = tempr;
+            imag[i] = tempi;
+        }
+
+        for(int maxSpectraForStage = 1, stepSize = 2;
+                maxSpectraForStage < size;
+                maxSpectraForStage = stepSize, stepSize *= 2){
+            int table = maxSpectraForStage - 1;
+            for (int spectraCnt = 0; spectraCnt < maxSpectraForStage;
+                    ++spectraCnt){
+                double realCorrection = cos[table + spectraCnt];
+                double imagCorrection = sin[table + spectraCnt];
+                for (int left = spectraCnt;
+                        left < size; left += stepSize){
+                    int right = left + maxSpectraForStage;
+                    double tempReal =
+                            realCorrection*real[right]
+                                    - imagCorrection*imag[right];
+                    double tempImag =
+                            realCorrection*imag[right]
+                                    + imagCorrection*real[right];
+                    real[right] = real[left]-tempReal;
+                    imag[right] = imag[left]-tempImag;
+                    real[left] += tempReal;
+                    imag[left] += tempImag;
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs complexToComplex on count interleaved sequences at once,
+     * value n of sequence c at index n * count + c
+     * @param real Real parts of size * count values
+     * @param imag Imaginary parts of size * count values
+     * @param count Number of sequences
+     */
+    public void complexToComplexBatch(double[] real, double[] imag,
+            int count){
+        for(int n = 0; n < swapFrom.length; n++){
+            int i = swapFrom[n]*count;
+            int j = swapTo[n]*count;
+            for(int c = 0; c < count; c++){
+                double tempr = real[j + c];
+                double tempi = imag[j + c];
+                real[j + c] = real[i + c];
+                imag[j + c] = imag[i + c];
+                real[i + c] = tempr;
+                imag[i + c] = tempi;
+            }
+        }
+
+        for(int maxSpectraForStage = 1, stepSize = 2;
+                maxSpectraForStage < size;
+                maxSpectraForStage = stepSize, stepSize *= 2){
+            int table = maxSpectraForStage - 1;
+            for (int spectraCnt = 0; spectraCnt < maxSpectraForStage;
+                    ++spectraCnt){
+                double realCorrection = cos[table + spectraCnt];
+                double imagCorrection = sin[table + spectraCnt];
+                for (int left = spectraCnt;
+                        left < size; left += stepSize){
+                    int l = left*count;
+                    int r = (left + maxSpectraForStage)*count;
+                    for(int c = 0; c < count; c++){
+                        double tempReal =
+                                realCorrection*real[r + c]
+                                        - imagCorrection*imag[r + c];
+                        double tempImag =
+                                realCorrection*imag[r + c]
+                                        + imagCorrection*real[r + c];
+                        real[r + c] = real[l + c]-tempReal;
+                        imag[r + c] = imag[l + c]-tempImag;
+                        real[l + c] += tempReal;
+                        imag[l + c] += tempImag;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package main;
+
+import java.io.PrintStream;
+
+/**
+ * Reports errors that end the comparison being run
+ * From the command line an error is printed and the program exits
+ * with status 1, as it always has; a MatchServer only fails the request
+ * being served, so while serving an error is thrown as a
+ * RequestFailedException instead
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class Fatal {
+    /**
+     * Are errors thrown instead of ending the program?
+     */
+    private static volatile boolean serving = false;
+
+    /**
+     * Makes later errors throw RequestFailedException instead of ending
+     * the program
+     */
+    public static void serve(){
+        serving = true;
+    }
+
+    /**
+     * Checks whether errors end the program
+     * @return True if errors are thrown instead; otherwise, false
+     */
+    public static boolean isServing(){
+        return serving;
+    }
+
+    /**
+     * Prints an error on standard error and exits, or throws it while
+     * serving
+     * @param message Error message, without the ERROR: prefix
+     */
+    public static void error(String message){
+        error(System.err, message);
+    }
+
+    /**
+     * Prints an error on the given stream and exits, or throws it while
+     * serving
+     * @param out Stream the error is printed on
+     * @param message Error message, without the ERROR: prefix
+     */
+    public static void error(PrintStream out, String message){
+        if(serving){
+            throw new RequestFailedException(message);
+        }
+        out.println("ERROR: " + message);
+        System.exit(1);
+    }
+
+    /**
+     * An error that fails the request being served
+     */
+    public static class RequestFailedException extends RuntimeException {
+        /**
+         * Serialization version
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor for a RequestFailedException
+         * @param message Error message
+         */
+        public RequestFailedException(String message){
+            super(message);
+        }
+
+        /**
+         * Gives just the message, so that errors built from an
+         * exception read the same whether it is this one or not
+         * @return Error message
+         */
+        @Override
+        public String toString(){
+            return getMessage();
+        }
+    }
+}
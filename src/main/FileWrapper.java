@@ -16,6 +16,14 @@ import javax.sound.sampled.AudioSystem;
  *
  */
 public abstract class FileWrapper {
+    /**
+     * Should compressed files be fingerprinted straight from their
+     * decoder's output instead of from converted files on disk?
+     * Set the signalmatcher.stream system property to false to convert
+     * through temporary files as before
+     */
+    protected static final boolean STREAMING = Boolean.parseBoolean(
+            System.getProperty("signalmatcher.stream", "true"));
     /**
      * File
      */
@@ -37,16 +45,10 @@ public abstract class FileWrapper {
      */
     private void checkExistsAndIsFile(File file) {
         if(!file.exists()) {
-            System.err.println("ERROR: " + 
-                    file.getName() + 
-                    " does not exist");
-            System.exit(1);
+            Fatal.error(file.getName() + " does not exist");
         } 
         else if (!file.isFile()) {
-            System.err.println("ERROR: " + 
-                    file.getName() +
-                    " is not a file");
-            System.exit(1);
+            Fatal.error(file.getName() + " is not a file");
         }
     }
 
@@ -32,8 +32,7 @@ public class FilesCreator {
         } else if (mode.equals("-d")){
             return makeDirectoryList(inFile);
         } else {
-            System.out.println("ERROR: Incorrect command line arguments");
-            System.exit(1);
+            Fatal.error(System.out, "Incorrect command line arguments");
             return null;
         }
 
@@ -45,13 +44,9 @@ public class FilesCreator {
      */
     public static void checkExistsAndReadable(File inFile){
         if(!inFile.exists()){
-            System.out.println("ERROR: "+ 
-                    inFile.getName() + " does not exist");
-            System.exit(1);
+            Fatal.error(System.out, inFile.getName() + " does not exist");
         } else if (!inFile.canRead()){
-            System.out.println("ERROR: " + 
-                    inFile.getName() + " can not be read");
-            System.exit(1);
+            Fatal.error(System.out, inFile.getName() + " can not be read");
         }
     }
 
@@ -78,14 +73,17 @@ public class FilesCreator {
     public static ArrayList<FileWrapper> makeDirectoryList(File dir){
 
         if (!dir.isDirectory()) {
-            System.out.println("ERROR: "+ 
-                    dir.getName() + " is not a directory");
-            System.exit(1);
+            Fatal.error(System.out, dir.getName() + " is not a directory");
         } 
 
         File[] files = dir.listFiles();
         if (files.length == 0){
-            System.exit(0);
+            // An empty directory has nothing to match; a server answers
+            // with no matches instead of exiting
+            if(!Fatal.isServing()){
+                System.exit(0);
+            }
+            return new ArrayList<FileWrapper>();
         }
 
         ArrayList<FileWrapper> result = new ArrayList<FileWrapper>();
@@ -113,9 +111,8 @@ public class FilesCreator {
             musicFile = new OggWrapper(file);
         }
         else {
-            System.out.println("ERROR: "+ 
+            Fatal.error(System.out, 
                     file.getName() + " is not a supported format");
-            System.exit(1);
         }
 
         return musicFile;
@@ -27,11 +27,15 @@ public class Fingerprint {
     /**
      * The number of frequency bands in a fingerprint
      */
-    private static final int NUMBER_OF_BANDS = 10;
+    public static final int NUMBER_OF_BANDS = 10;
     /**
      * The scale of the values in fingerprint bins
      */
     private static final double HASH_SCALE_MAX = 5001;
+    /**
+     * Number of distinct values hashCode can return
+     */
+    public static final int HASH_BUCKETS = (int) HASH_SCALE_MAX;
     /**
      * Maximum possible value of the sum of fingerprint bins
      */
@@ -40,6 +44,18 @@ public class Fingerprint {
      * Helps create time representation of location of chunk in song
      */
     private static final DecimalFormat df = new DecimalFormat("#.#");
+    /**
+     * Real, imaginary and magnitude buffers reused by computeBands,
+     * one set per thread
+     */
+    private static final ThreadLocal<double[][]> SCRATCH =
+            new ThreadLocal<double[][]>();
+    /**
+     * Interleaved real and imaginary buffers reused by the batched
+     * computeBandsDirect, one set per thread
+     */
+    private static final ThreadLocal<double[][]> BATCH_SCRATCH =
+            new ThreadLocal<double[][]>();
     /**
      * Points to the next fingerprint or to null
      */
@@ -56,6 +72,10 @@ public class Fingerprint {
      * Location in a file as the index of a chunk
      */
     private int location;
+    /**
+     * Locality-sensitive hash of the bands, computed once
+     */
+    private int hash;
 
     /**
      * Constructor for a Fingerprint
@@ -64,17 +84,139 @@ public class Fingerprint {
      * @param location Location as an index of an array of fingerprints
      */
     public Fingerprint(double[] samples, String name, int location) {
-        bands = new int[NUMBER_OF_BANDS];
-        double[] amplitudes = new double[samples.length];
-        FFT.transform(samples, new double[samples.length],
-                new double[samples.length], amplitudes);
-        bandFilter(amplitudes);
-        scale();
+        bands = computeBands(samples);
+        this.hash = hashOf(bands);
+        this.name = name;
+        this.location = location;
+        this.next = null;
+    }
+
+    /**
+     * Constructor for a Fingerprint whose bands have already been
+     * computed, e.g. when loaded from a FingerprintCatalog
+     * @param bands Scaled frequency bands
+     * @param name Song name
+     * @param location Location as an index of an array of fingerprints
+     */
+    public Fingerprint(int[] bands, String name, int location) {
+        this.bands = bands;
+        this.hash = hashOf(bands);
         this.name = name;
         this.location = location;
         this.next = null;
     }
 
+    /**
+     * Computes the scaled frequency bands of a chunk of samples
+     * @param samples Array of doubles
+     * @return Bands scaled to be between 0 and HASH_SCALE_MAX
+     */
+    public static int[] computeBands(double[] samples) {
+        int[] bands = new int[NUMBER_OF_BANDS];
+        computeBands(samples, bands);
+        return bands;
+    }
+
+    /**
+     * Computes the scaled frequency bands of a chunk of samples into
+     * the given array
+     * @param samples Array of doubles
+     * @param bands Array of NUMBER_OF_BANDS ints to fill
+     */
+    public static void computeBands(double[] samples, int[] bands) {
+        double[][] scratch = SCRATCH.get();
+        if(scratch == null || scratch[0].length != samples.length){
+            scratch = new double[3][samples.length];
+            SCRATCH.set(scratch);
+        }
+        double[] amplitudes = scratch[2];
+        FFTPlan.forThread(samples.length).transform(samples,
+                scratch[0], scratch[1], amplitudes);
+        bandFilter(amplitudes, bands);
+        scale(bands);
+    }
+
+    /**
+     * Computes the scaled frequency bands of a chunk of samples from the
+     * magnitudes of the lower half of its spectrum only
+     * The upper half of the spectrum of real samples mirrors the lower
+     * half, so bin i above the middle is read from bin length - i, and
+     * the bins are still added in the order bandFilter adds them
+     * The magnitudes differ from those of computeBands by rounding,
+     * which now and then moves a truncated band sum by one; after
+     * scaling a band is then off by about HASH_SCALE_MAX divided by the
+     * largest band, at most a few units, far inside the distances
+     * SignalMatcher tolerates
+     * @param samples Array of doubles, of power-of-two length
+     * @param bands Array of NUMBER_OF_BANDS ints to fill
+     */
+    public static void computeBandsDirect(double[] samples, int[] bands) {
+        int length = samples.length;
+        double[][] scratch = SCRATCH.get();
+        if(scratch == null || scratch[0].length != length){
+            scratch = new double[3][length];
+            SCRATCH.set(scratch);
+        }
+        double[] halfAmplitudes = scratch[0];
+        FFTPlan.forThread(length).halfMagnitudes(samples, halfAmplitudes,
+                scratch[1]);
+        int window = 1;
+        int pointer = 1;
+        for(int b = 0; b < NUMBER_OF_BANDS; b++){
+            int acc = 0;
+            for(int i = pointer; i < pointer + window; i++){
+                acc += halfAmplitudes[i <= length/2 ? i : length - i];
+            }
+            bands[b] = acc;
+            pointer += window;
+            window *= 2;
+        }
+        scale(bands);
+    }
+
+    /**
+     * Computes the scaled frequency bands of several chunks of samples
+     * together, from one batched half-spectrum FFT, giving exactly the
+     * bands computeBandsDirect gives for each chunk alone
+     * @param chunks Chunks of samples, all of the same power-of-two
+     * length
+     * @param from Index in chunks of the first chunk
+     * @param count Number of chunks
+     * @param bands Array of count * NUMBER_OF_BANDS ints to fill, the
+     * bands of each chunk after those of the chunk before
+     */
+    public static void computeBandsDirect(double[][] chunks, int from,
+            int count, int[] bands) {
+        int length = chunks[from].length;
+        int bins = (length/2 + 1) * count;
+        double[][] scratch = BATCH_SCRATCH.get();
+        if(scratch == null || scratch[0].length < bins){
+            scratch = new double[2][bins];
+            BATCH_SCRATCH.set(scratch);
+        }
+        double[] halfAmplitudes = scratch[0];
+        FFTPlan.forThread(length).halfMagnitudesBatch(chunks, from, count,
+                halfAmplitudes, scratch[1]);
+        int[] chunkBands = new int[NUMBER_OF_BANDS];
+        for(int c = 0; c < count; c++){
+            int window = 1;
+            int pointer = 1;
+            for(int b = 0; b < NUMBER_OF_BANDS; b++){
+                int acc = 0;
+                for(int i = pointer; i < pointer + window; i++){
+                    int bin = i <= length/2 ? i : length - i;
+                    acc += halfAmplitudes[bin * count + c];
+                }
+                chunkBands[b] = acc;
+                pointer += window;
+                window *= 2;
+            }
+            scale(chunkBands);
+            System.arraycopy(chunkBands, 0, bands, c * NUMBER_OF_BANDS,
+                    NUMBER_OF_BANDS);
+        }
+    }
+
     /**
      * Finds the time in the song of the chunk represented by the given
      * fingerprint in seconds
@@ -93,7 +235,17 @@ public class Fingerprint {
      * @return Time in seconds as a string
      */
     public static String findTimeInFile(Fingerprint f){
-        return df.format((double)f.location * TIME_OF_ONE_CHUNK);
+        return findTimeInFile(f.location);
+    }
+
+    /**
+     * Finds the time in the song of the chunk at the given location
+     * in seconds as a string
+     * @param location Location as an index of an array of fingerprints
+     * @return Time in seconds as a string
+     */
+    public static String findTimeInFile(int location){
+        return df.format((double)location * TIME_OF_ONE_CHUNK);
     }
 
     /**
@@ -124,6 +276,16 @@ public class Fingerprint {
      * of the song at this fingerprint's location
      */
     public void bandFilter(double[] amplitudes) {
+        bandFilter(amplitudes, bands);
+    }
+
+    /**
+     * Sums amplitudes over ten bands of frequencies into bands
+     * @param amplitudes Representation of the spectral density 
+     * of a chunk
+     * @param bands Array of NUMBER_OF_BANDS ints to fill
+     */
+    private static void bandFilter(double[] amplitudes, int[] bands) {
         int window = 1;
         int pointer = 1;
         for(int i = 0; i < bands.length; i++){
@@ -143,7 +305,10 @@ public class Fingerprint {
      * @return Sum of values in the array from start to 
      * (start + length - 1)
      */
-    private int addBand(int start, int length, double[] amplitudes) {
+    private static int addBand(int start, int length, double[] amplitudes) {
+        // Adding a double to an int truncates the sum after every
+        // amplitude, so the amplitudes are added one by one in order
+        // for the bands to stay the same
         int acc = 0;
         for(int i = start; i < start + length; i++){
             acc += amplitudes[i];
@@ -154,8 +319,9 @@ public class Fingerprint {
     /**
      * Scales the band-filtered fingerprint to be between 0 and
      * PRIMARY_SCALE_MAX
+     * @param bands Band-filtered fingerprint
      */
-    private void scale(){
+    private static void scale(int[] bands){
         int largest = findLargest(bands);
         double scaleFactor = HASH_SCALE_MAX / ((double)largest);
         for(int i = 0; i < bands.length; i++){
@@ -177,6 +343,7 @@ public class Fingerprint {
      */
     public void setBands(int[] bands) {
         this.bands = bands;
+        this.hash = hashOf(bands);
     }
 
     /**
@@ -209,7 +376,7 @@ public class Fingerprint {
      * @param bins Array of ints 
      * @return Largest int in the given array
      */
-    private int findLargest(int[] bins){
+    private static int findLargest(int[] bins){
         int largest = bins[0];
         for(int i = 1; i < bins.length; i++){
             if (bins[i] > largest)
@@ -223,6 +390,15 @@ public class Fingerprint {
      * @return hashCode for this fingerprint
      */
     public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Computes the locality-sensitive hash of the given bands
+     * @param bands Scaled frequency bands
+     * @return Hash between 0 and HASH_SCALE_MAX
+     */
+    public static int hashOf(int[] bands) {
         int result = 0;
         int l = findLargest(bands);
 
@@ -0,0 +1,205 @@
+package main;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Cuts a stream of mono samples at the canonical sample rate into
+ * chunks of SAMPLES_PER_CHUNK samples and appends the fingerprint of
+ * each chunk to a FingerprintColumns
+ * A final partial chunk is padded with silence
+ * The fingerprint of a chunk depends on no other chunk, so chunks are
+ * gathered into batches whose fingerprints are computed in parallel on
+ * the common ForkJoinPool and then appended in order
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class FingerprintBuilder implements SampleSink {
+    /**
+     * Number of chunks gathered before their fingerprints are computed
+     */
+    private static final int BATCH_CHUNKS = 256;
+    /**
+     * Number of chunks below which a batch is no longer split, which
+     * are then transformed together by the batched computeBandsDirect
+     */
+    private static final int LEAF_CHUNKS = 8;
+    /**
+     * Number of band values per chunk
+     */
+    private static final int BANDS = Fingerprint.NUMBER_OF_BANDS;
+    /**
+     * Samples of the chunks of the batch being filled, allocated as
+     * they are first needed
+     */
+    private double[][] batch = new double[BATCH_CHUNKS][];
+    /**
+     * Number of full chunks in batch
+     */
+    private int chunks = 0;
+    /**
+     * Number of samples in the chunk being filled
+     */
+    private int filled = 0;
+    /**
+     * Bands of the chunks of the batch, BANDS values per chunk
+     */
+    private int[] bands = new int[BATCH_CHUNKS * BANDS];
+    /**
+     * hashCode of each chunk of the batch
+     */
+    private int[] hashes = new int[BATCH_CHUNKS];
+    /**
+     * Fingerprints of the chunks seen so far
+     */
+    private FingerprintColumns columns;
+
+    /**
+     * Constructor for a FingerprintBuilder
+     * @param name Name of file
+     * @param expectedChunks Expected number of chunks
+     */
+    public FingerprintBuilder(String name, int expectedChunks){
+        columns = new FingerprintColumns(name, Math.max(1, expectedChunks));
+    }
+
+    @Override
+    public void write(double[] samples, int count){
+        int s = 0;
+        while(s < count){
+            double[] chunk = currentChunk();
+            int n = Math.min(count - s, chunk.length - filled);
+            System.arraycopy(samples, s, chunk, filled, n);
+            filled += n;
+            s += n;
+            if(filled == chunk.length){
+                filled = 0;
+                chunks++;
+                if(chunks == BATCH_CHUNKS){
+                    addBatch();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void finish(){
+        if(filled > 0){
+            double[] chunk = currentChunk();
+            for(int i = filled; i < chunk.length; i++){
+                chunk[i] = 0.0;
+            }
+            filled = 0;
+            chunks++;
+        }
+        addBatch();
+        columns.trim();
+    }
+
+    /**
+     * Gets the chunk being filled
+     * @return Samples of the chunk
+     */
+    private double[] currentChunk(){
+        if(batch[chunks] == null){
+            batch[chunks] = new double[CanonicalFile.SAMPLES_PER_CHUNK];
+        }
+        return batch[chunks];
+    }
+
+    /**
+     * Fingerprints the full chunks of the batch and starts a new batch
+     */
+    private void addBatch(){
+        if(chunks == 0){
+            return;
+        }
+        long start = Stats.start();
+        ForkJoinPool.commonPool().invoke(
+                new BandTask(batch, bands, hashes, 0, chunks));
+        columns.addAll(bands, hashes, chunks);
+        Stats.FINGERPRINTING.stop(start);
+        Stats.CHUNKS_FINGERPRINTED.add(chunks);
+        chunks = 0;
+    }
+
+    /**
+     * Gets the fingerprints of the stream
+     * @return Fingerprints of every chunk written before finish
+     */
+    public FingerprintColumns getColumns(){
+        return columns;
+    }
+
+    /**
+     * Computes the bands and hashCodes of a range of chunks, splitting
+     * the range in half until it is small
+     */
+    private static class BandTask extends RecursiveAction {
+        /**
+         * Serialization version
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Samples of every chunk
+         */
+        private final double[][] chunks;
+        /**
+         * Bands of every chunk, BANDS values per chunk
+         */
+        private final int[] bands;
+        /**
+         * hashCode of every chunk
+         */
+        private final int[] hashes;
+        /**
+         * First chunk of the range
+         */
+        private final int from;
+        /**
+         * Chunk after the last of the range
+         */
+        private final int to;
+
+        /**
+         * Constructor for a BandTask
+         * @param chunks Samples of every chunk
+         * @param bands Bands of every chunk
+         * @param hashes hashCode of every chunk
+         * @param from First chunk of the range
+         * @param to Chunk after the last of the range
+         */
+        BandTask(double[][] chunks, int[] bands, int[] hashes,
+                int from, int to){
+            this.chunks = chunks;
+            this.bands = bands;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from <= LEAF_CHUNKS){
+                // A leaf's chunks go through one batched FFT
+                int[] leafBands = new int[(to - from) * BANDS];
+                Fingerprint.computeBandsDirect(chunks, from, to - from,
+                        leafBands);
+                System.arraycopy(leafBands, 0, bands, from * BANDS,
+                        leafBands.length);
+                int[] chunkBands = new int[BANDS];
+                for(int c = from; c < to; c++){
+                    System.arraycopy(bands, c * BANDS, chunkBands, 0,
+                            BANDS);
+                    hashes[c] = Fingerprint.hashOf(chunkBands);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BandTask(chunks, bands, hashes, from, middle),
+                    new BandTask(chunks, bands, hashes, middle, to));
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent on-disk catalog of the fingerprints of every file in
+ * a directory, so that a directory is only decoded and fingerprinted
+ * again when one of its files changes
+ * Saving merges the changes of this catalog into the one on disk under
+ * a file lock, so processes that fingerprint different files of the
+ * same directory at once, such as the workers of a sharded comparison,
+ * keep each other's entries
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class FingerprintCatalog {
+    /**
+     * Marks the start of a catalog file
+     */
+    private static final int MAGIC = 0x534d4346;
+    /**
+     * Version of the catalog file layout
+     */
+    private static final int VERSION = 5;
+    /**
+     * Ending of the name of a catalog of files fingerprinted through
+     * temporary converted files, which fingerprint differently from
+     * streamed decoder output, so that the two are never mixed
+     */
+    private static final String CONVERTED_SUFFIX = "-converted";
+    /**
+     * System property naming the directory the catalogs are kept in
+     */
+    private static final String CATALOG_DIR_PROPERTY =
+            "signalmatcher.catalog";
+    /**
+     * File the catalog is read from and written to
+     */
+    private File catalogFile;
+    /**
+     * Absolute path of the directory this catalog describes
+     */
+    private String directory;
+    /**
+     * Catalog entries keyed by the absolute path of their source file
+     */
+    private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    /**
+     * Paths recorded since the catalog was loaded or last saved
+     */
+    private HashSet<String> recorded = new HashSet<String>();
+    /**
+     * Paths dropped since the catalog was loaded or last saved
+     */
+    private HashSet<String> dropped = new HashSet<String>();
+    /**
+     * Has the catalog changed since it was loaded?
+     */
+    private boolean dirty = false;
+    /**
+     * Held while a catalog is saved, as a FileLock is held by the whole
+     * program and cannot be taken twice by it
+     */
+    private static final Object SAVING = new Object();
+
+    /**
+     * Constructor for a FingerprintCatalog
+     * @param catalogFile File the catalog is stored in
+     * @param directory Absolute path of the directory being described
+     */
+    public FingerprintCatalog(File catalogFile, String directory){
+        this.catalogFile = catalogFile;
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the catalog of the given directory, loading any entries
+     * previously saved for it
+     * Files decoded by streaming and by conversion through temporary
+     * files are catalogued apart
+     * @param dir Directory of audio files
+     * @return The catalog of the directory
+     */
+    public static FingerprintCatalog forDirectory(File dir){
+        String path = dir.getAbsolutePath();
+        try {
+            path = dir.getCanonicalPath();
+        } catch (IOException e){
+            // Falls back on the absolute path
+        }
+        File catalogDir = new File(System.getProperty(CATALOG_DIR_PROPERTY,
+                new File(System.getProperty("user.home"),
+                        ".signalmatcher").getPath()));
+        File catalogFile = new File(catalogDir, "catalog-" +
+                Integer.toHexString(path.hashCode()) +
+                (FileWrapper.STREAMING ? "" : CONVERTED_SUFFIX) + ".bin");
+        FingerprintCatalog catalog =
+                new FingerprintCatalog(catalogFile, path);
+        catalog.load();
+        return catalog;
+    }
+
+    /**
+     * Returns a canonical file holding the catalogued fingerprints of
+     * the given source file, or null if the file is not in the
+     * catalog or has changed since it was catalogued
+     * The file is only read to compare its checksum when its size is
+     * unchanged but its modification time is not, and an unchanged
+     * checksum then updates the modification time in the catalog
+     * @param source Original audio file
+     * @return A canonical file or null
+     */
+    public CanonicalFile lookup(File source){
+        String path = source.getAbsolutePath();
+        Entry e = entries.get(path);
+        long size = source.length();
+        long modified = source.lastModified();
+        if(e == null || e.size != size){
+            return null;
+        }
+        if(e.modified != modified){
+            if(e.checksum != checksum(source)){
+                return null;
+            }
+            e.modified = modified;
+            recorded.add(path);
+            dropped.remove(path);
+            dirty = true;
+        }
+        return new CanonicalFile(e.columns);
+    }
+
+    /**
+     * Takes the size, modification time and checksum of a source file,
+     * to be recorded with its fingerprints
+     * Taken before the file is fingerprinted, so that a file changed
+     * meanwhile no longer matches its entry and is fingerprinted again
+     * @param source Original audio file
+     * @return Stamp of the file as it is now
+     */
+    public static Stamp stamp(File source){
+        Stamp stamp = new Stamp();
+        stamp.size = source.length();
+        stamp.modified = source.lastModified();
+        stamp.checksum = checksum(source);
+        return stamp;
+    }
+
+    /**
+     * Records the fingerprints of the given canonical file under the
+     * given source file
+     * @param source Original audio file
+     * @param stamp Stamp of the source file taken before it was
+     * fingerprinted
+     * @param cf Canonical form of the source file
+     */
+    public void record(File source, Stamp stamp, CanonicalFile cf){
+        Entry e = new Entry();
+        e.columns = cf.fingerprintColumns();
+        e.size = stamp.size;
+        e.modified = stamp.modified;
+        e.checksum = stamp.checksum;
+        entries.put(source.getAbsolutePath(), e);
+        recorded.add(source.getAbsolutePath());
+        dropped.remove(source.getAbsolutePath());
+        dirty = true;
+    }
+
+    /**
+     * Drops every entry whose source file is not among the given files
+     * @param sources Files currently in the directory
+     */
+    public void retainOnly(Collection<File> sources){
+        Set<String> paths = new HashSet<String>();
+        for(File f : sources){
+            paths.add(f.getAbsolutePath());
+        }
+        Iterator<String> it = entries.keySet().iterator();
+        while(it.hasNext()){
+            String path = it.next();
+            if(!paths.contains(path)){
+                it.remove();
+                recorded.remove(path);
+                dropped.add(path);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the catalog to disk if it has changed, merged with any
+     * entries saved meanwhile by another program
+     * A catalog that cannot be written is silently left stale, since
+     * it only ever saves work
+     */
+    public void save(){
+        if(!dirty){
+            return;
+        }
+        File dir = catalogFile.getParentFile();
+        dir.mkdirs();
+        synchronized(SAVING){
+            RandomAccessFile lockFile = null;
+            try {
+                lockFile = new RandomAccessFile(new File(dir,
+                        catalogFile.getName() + ".lock"), "rw");
+                FileChannel channel = lockFile.getChannel();
+                FileLock lock = channel.lock();
+                try {
+                    mergeSaved();
+                    write(dir);
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e){
+                // Left stale
+            } finally {
+                closeQuietly(lockFile);
+            }
+        }
+    }
+
+    /**
+     * Takes the entries another program has saved since this catalog
+     * was loaded, except those this catalog has recorded or dropped
+     * since, which it knows better
+     */
+    private void mergeSaved(){
+        FingerprintCatalog saved =
+                new FingerprintCatalog(catalogFile, directory);
+        saved.load();
+        for(String path : saved.entries.keySet()){
+            if(!recorded.contains(path) && !dropped.contains(path)){
+                entries.put(path, saved.entries.get(path));
+            }
+        }
+    }
+
+    /**
+     * Writes the catalog to a temporary file and renames it over the
+     * catalog file
+     * @param dir Directory of the catalog file
+     */
+    private void write(File dir){
+        File tmp = null;
+        DataOutputStream out = null;
+        try {
+            // A file of its own, as a MatchServer may save the same
+            // catalog from two requests at once
+            tmp = File.createTempFile(catalogFile.getName(), ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(directory);
+            out.writeInt(entries.size());
+            for(String path : entries.keySet()){
+                Entry e = entries.get(path);
+                out.writeUTF(path);
+                out.writeUTF(e.columns.getName());
+                out.writeLong(e.size);
+                out.writeLong(e.modified);
+                out.writeLong(e.checksum);
+                // Chunk locations are implicit: chunk i is at index i
+                int chunks = e.columns.size();
+                short[] hashes = e.columns.getHashes();
+                short[] bands = e.columns.getBands();
+                out.writeInt(chunks);
+                for(int i = 0; i < chunks; i++){
+                    out.writeShort(hashes[i]);
+                }
+                for(int i = 0; i < chunks * Fingerprint.NUMBER_OF_BANDS;
+                        i++){
+                    out.writeShort(bands[i]);
+                }
+            }
+            out.close();
+            out = null;
+            if(tmp.renameTo(catalogFile)){
+                dirty = false;
+                recorded.clear();
+                dropped.clear();
+            } else {
+                tmp.delete();
+            }
+        } catch (IOException e){
+            if(tmp != null){
+                tmp.delete();
+            }
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Reads the catalog from disk
+     * A missing, foreign or corrupt catalog is treated as empty
+     */
+    private void load(){
+        if(!catalogFile.isFile()){
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(catalogFile)));
+            if(in.readInt() != MAGIC || in.readInt() != VERSION ||
+                    !in.readUTF().equals(directory)){
+                return;
+            }
+            int count = in.readInt();
+            for(int n = 0; n < count; n++){
+                String path = in.readUTF();
+                Entry e = new Entry();
+                String name = in.readUTF();
+                e.size = in.readLong();
+                e.modified = in.readLong();
+                e.checksum = in.readLong();
+                int chunks = in.readInt();
+                short[] hashes = new short[chunks];
+                short[] bands = 
+                        new short[chunks * Fingerprint.NUMBER_OF_BANDS];
+                for(int i = 0; i < hashes.length; i++){
+                    hashes[i] = in.readShort();
+                }
+                for(int i = 0; i < bands.length; i++){
+                    bands[i] = in.readShort();
+                }
+                e.columns = new FingerprintColumns(name, bands, hashes);
+                entries.put(path, e);
+            }
+        } catch (IOException e){
+            entries.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Computes a checksum of the contents of the given file
+     * @param file File
+     * @return CRC32 of the file's bytes, or -1 if it cannot be read
+     */
+    private static long checksum(File file){
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int read;
+            while((read = in.read(buffer)) != -1){
+                crc.update(buffer, 0, read);
+            }
+            return crc.getValue();
+        } catch (IOException e){
+            return -1;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Closes the given stream, ignoring any error
+     * @param c Stream or null
+     */
+    private static void closeQuietly(Closeable c){
+        if(c == null){
+            return;
+        }
+        try {
+            c.close();
+        } catch (IOException e){
+            // Nothing left to do with the stream
+        }
+    }
+
+    /**
+     * The size, modification time and checksum of a source file at one
+     * moment
+     */
+    public static class Stamp {
+        /**
+         * Size of the source file in bytes
+         */
+        private long size;
+        /**
+         * Modification time of the source file
+         */
+        private long modified;
+        /**
+         * Checksum of the source file
+         */
+        private long checksum;
+    }
+
+    /**
+     * The catalogued fingerprints of one source file
+     */
+    private static class Entry {
+        /**
+         * Size of the source file in bytes when it was catalogued
+         */
+        long size;
+        /**
+         * Modification time of the source file when it was catalogued
+         */
+        long modified;
+        /**
+         * Checksum of the source file when it was catalogued
+         */
+        long checksum;
+        /**
+         * Fingerprints of the source file
+         */
+        FingerprintColumns columns;
+    }
+}
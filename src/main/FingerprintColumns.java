@@ -0,0 +1,390 @@
+package main;
+
+/**
+ * The fingerprints of every chunk of one file, stored column by column
+ * Bands of all chunks live in one flat array, NUMBER_OF_BANDS values per
+ * chunk, and the chunk after chunk i is simply chunk i + 1
+ * Bands are scaled to at most 5001 and hashes are below HASH_BUCKETS, so
+ * both fit in shorts: a chunk costs 22 bytes instead of the ~88 of a
+ * Fingerprint object with its own band array
+ * Each chunk also has a packed fingerprint: its bands quantized to 6
+ * bits each and packed into one long, compared with packedDistance
+ * The packed fingerprints are only computed the first time one is
+ * asked for, so columns that are never compared by packedDistance
+ * cost no more than their bands and hashes
+ * The columns of another file are read through getBands and packedOf,
+ * so that they may be kept outside the heap, as MappedColumns are
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class FingerprintColumns {
+    /**
+     * Number of band values stored per chunk
+     */
+    private static final int BANDS = Fingerprint.NUMBER_OF_BANDS;
+    /**
+     * Bits per band of a packed fingerprint
+     */
+    private static final int PACKED_BITS = 6;
+    /**
+     * Largest quantized band
+     */
+    private static final int PACKED_MAX = (1 << PACKED_BITS) - 1;
+    /**
+     * Largest scaled band
+     */
+    private static final int BAND_MAX = 5001;
+    /**
+     * Low 6 bits of each of five 12 bit lanes, which are exactly the
+     * even bands of a packed fingerprint
+     */
+    private static final long LANES = 0x03F03F03F03F03FL;
+    /**
+     * Bit 6 of each 12 bit lane
+     */
+    private static final long GUARD = 0x040040040040040L;
+    /**
+     * Bit 0 of each 12 bit lane
+     */
+    private static final long ONES = 0x001001001001001L;
+    /**
+     * Name of the file
+     */
+    private String name;
+    /**
+     * Number of chunks stored
+     */
+    private int size;
+    /**
+     * Bands of every chunk, BANDS values per chunk
+     */
+    private short[] bands;
+    /**
+     * hashCode of every chunk
+     */
+    private short[] hashes;
+    /**
+     * Packed fingerprint of every chunk, or null until one is asked for
+     * or after a chunk is added
+     */
+    private volatile long[] packed;
+
+    /**
+     * Constructor for an empty FingerprintColumns
+     * @param name Name of file
+     * @param capacity Expected number of chunks
+     */
+    public FingerprintColumns(String name, int capacity){
+        this.name = name;
+        this.size = 0;
+        this.bands = new short[capacity * BANDS];
+        this.hashes = new short[capacity];
+    }
+
+    /**
+     * Constructor for a FingerprintColumns over existing columns
+     * @param name Name of file
+     * @param bands Bands of every chunk, NUMBER_OF_BANDS per chunk
+     * @param hashes hashCode of every chunk
+     */
+    public FingerprintColumns(String name, short[] bands, short[] hashes){
+        this.name = name;
+        this.size = hashes.length;
+        this.bands = bands;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Appends the fingerprint of the next chunk
+     * @param chunkBands Scaled frequency bands of the chunk
+     */
+    public void add(int[] chunkBands){
+        if(size == hashes.length){
+            grow(Math.max(16, size * 2));
+        }
+        for(int b = 0; b < BANDS; b++){
+            bands[size * BANDS + b] = (short) chunkBands[b];
+        }
+        hashes[size] = (short) Fingerprint.hashOf(chunkBands);
+        size++;
+        packed = null;
+    }
+
+    /**
+     * Appends the fingerprints of the next chunks
+     * @param chunkBands Scaled frequency bands of the chunks,
+     * NUMBER_OF_BANDS per chunk
+     * @param hashCodes hashCode of each chunk
+     * @param count Number of chunks
+     */
+    public void addAll(int[] chunkBands, int[] hashCodes, int count){
+        if(size + count > hashes.length){
+            grow(Math.max(16, Math.max(size * 2, size + count)));
+        }
+        for(int i = 0; i < count * BANDS; i++){
+            bands[size * BANDS + i] = (short) chunkBands[i];
+        }
+        for(int c = 0; c < count; c++){
+            hashes[size + c] = (short) hashCodes[c];
+        }
+        size += count;
+        packed = null;
+    }
+
+    /**
+     * Drops any spare capacity left after the last chunk was added
+     */
+    public void trim(){
+        if(size != hashes.length){
+            grow(size);
+        }
+    }
+
+    /**
+     * Resizes the columns to hold the given number of chunks
+     * @param capacity Number of chunks
+     */
+    private void grow(int capacity){
+        short[] newBands = new short[capacity * BANDS];
+        short[] newHashes = new short[capacity];
+        System.arraycopy(bands, 0, newBands, 0, size * BANDS);
+        System.arraycopy(hashes, 0, newHashes, 0, size);
+        bands = newBands;
+        hashes = newHashes;
+    }
+
+    /**
+     * Creates columns holding the given fingerprints
+     * @param name Name of file
+     * @param fingerprints Fingerprints in chunk order
+     * @return Columns of the fingerprints
+     */
+    public static FingerprintColumns of(String name,
+            Fingerprint[] fingerprints){
+        FingerprintColumns columns =
+                new FingerprintColumns(name, fingerprints.length);
+        for(Fingerprint f : fingerprints){
+            columns.add(f.getBands());
+        }
+        return columns;
+    }
+
+    /**
+     * Computes the Euclidean distance between a chunk of this file and
+     * a chunk of another, exactly as EuclideanValue.getEuclideanValue
+     * does for their band arrays
+     * @param chunk Chunk index in this file
+     * @param other Columns of the other file
+     * @param otherChunk Chunk index in the other file
+     * @return Euclidean distance between the two chunks
+     */
+    public int distance(int chunk, FingerprintColumns other, int otherChunk){
+        short[] a = bands;
+        short[] b = other.getBands();
+        int i = chunk * BANDS;
+        int j = otherChunk * BANDS;
+        int output = 0;
+        for(int n = 0; n < BANDS; n++){
+            int diff = a[i + n] - b[j + n];
+            output += diff * diff;
+        }
+        return (int) Math.sqrt(output);
+    }
+
+    /**
+     * Checks whether the Euclidean distance between a chunk of this file
+     * and a chunk of another is at most maxDistance, exactly as
+     * distance(chunk, other, otherChunk) <= maxDistance, without a
+     * square root
+     * The truncated root of a sum is at most maxDistance exactly when
+     * the sum is below (maxDistance + 1) squared, and as the sum only
+     * grows, most pairs are rejected by their first two bands alone
+     * @param chunk Chunk index in this file
+     * @param other Columns of the other file
+     * @param otherChunk Chunk index in the other file
+     * @param maxDistance Largest acceptable distance
+     * @return True if the chunks are within maxDistance; otherwise, false
+     */
+    public boolean isWithin(int chunk, FingerprintColumns other,
+            int otherChunk, int maxDistance){
+        short[] a = bands;
+        short[] b = other.getBands();
+        int i = chunk * BANDS;
+        int j = otherChunk * BANDS;
+        int limit = (maxDistance + 1) * (maxDistance + 1);
+        int d0 = a[i] - b[j];
+        int d1 = a[i + 1] - b[j + 1];
+        int output = d0 * d0 + d1 * d1;
+        if(output >= limit){
+            return false;
+        }
+        for(int n = 2; n < BANDS; n++){
+            int diff = a[i + n] - b[j + n];
+            output += diff * diff;
+        }
+        return output < limit;
+    }
+
+    /**
+     * Computes the distance between the packed fingerprints of a chunk
+     * of this file and a chunk of another
+     * @param chunk Chunk index in this file
+     * @param other Columns of the other file
+     * @param otherChunk Chunk index in the other file
+     * @return Sum of the differences of their quantized bands
+     */
+    public int packedDistance(int chunk, FingerprintColumns other,
+            int otherChunk){
+        return packedDistance(packedOf(chunk), other.packedOf(otherChunk));
+    }
+
+    /**
+     * Computes the sum of the absolute differences of the quantized
+     * bands of two packed fingerprints, without branches
+     * The even and the odd bands each fill five 12 bit lanes of a long,
+     * so each lane has room for a difference and a guard bit that keeps
+     * the subtraction from borrowing across lanes
+     * @param a Packed fingerprint
+     * @param b Packed fingerprint
+     * @return Distance between 0 and 630
+     */
+    public static int packedDistance(long a, long b){
+        return laneDistance(a & LANES, b & LANES) +
+                laneDistance((a >>> PACKED_BITS) & LANES,
+                        (b >>> PACKED_BITS) & LANES);
+    }
+
+    /**
+     * Sums the absolute differences of five 6 bit values held in 12 bit
+     * lanes
+     * @param a Values in lanes
+     * @param b Values in lanes
+     * @return Sum of the absolute differences
+     */
+    private static int laneDistance(long a, long b){
+        // 64 + a - b in each lane
+        long v = (a | GUARD) - b;
+        // 1 in each lane where a < b
+        long negative = (~v >>> PACKED_BITS) & ONES;
+        // a - b, or b - a where that is negative, by two's complement
+        long abs = ((v & LANES) ^ (negative * PACKED_MAX)) + negative;
+        // Adds up the lanes into the top lane
+        return (int) ((abs * ONES) >>> 48) & 0xFFF;
+    }
+
+    /**
+     * Quantizes bands to 6 bits each and packs them into a long, the
+     * first band in the lowest bits
+     * @param bands Band values
+     * @param offset Index of the first band of the chunk
+     * @return Packed fingerprint
+     */
+    public static long pack(short[] bands, int offset){
+        long result = 0;
+        for(int b = 0; b < BANDS; b++){
+            result |= packBand(bands[offset + b], b);
+        }
+        return result;
+    }
+
+    /**
+     * Quantizes one band to 6 bits and shifts it to its place in a
+     * packed fingerprint
+     * @param value Band value
+     * @param band Index of the band within its chunk
+     * @return Bits of the band in the packed fingerprint
+     */
+    static long packBand(int value, int band){
+        long q = (value * PACKED_MAX + BAND_MAX / 2) / BAND_MAX;
+        return q << (band * PACKED_BITS);
+    }
+
+    /**
+     * Gets the name of the file
+     * @return Name of file
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * Gets the number of chunks
+     * @return Number of chunks
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Gets the hashCode of a chunk
+     * @param chunk Chunk index
+     * @return hashCode of its fingerprint
+     */
+    public int hashOf(int chunk){
+        return hashes[chunk];
+    }
+
+    /**
+     * Gets the band values of every chunk
+     * @return Array of NUMBER_OF_BANDS values per chunk
+     */
+    public short[] getBands(){
+        return bands;
+    }
+
+    /**
+     * Gets the hashCodes of every chunk
+     * @return Array of hashCodes
+     */
+    public short[] getHashes(){
+        return hashes;
+    }
+
+    /**
+     * Gets the packed fingerprint of a chunk
+     * @param chunk Chunk index
+     * @return Packed fingerprint
+     */
+    public long packedOf(int chunk){
+        long[] p = packed;
+        if(p == null){
+            // Threads that get here at once compute the same column
+            p = new long[size];
+            for(int c = 0; c < size; c++){
+                p[c] = pack(bands, c * BANDS);
+            }
+            packed = p;
+        }
+        return p[chunk];
+    }
+
+    /**
+     * Gets the bands of one chunk as a new array
+     * @param chunk Chunk index
+     * @return Array of NUMBER_OF_BANDS ints
+     */
+    public int[] bandsOf(int chunk){
+        int[] result = new int[BANDS];
+        for(int b = 0; b < BANDS; b++){
+            result[b] = bands[chunk * BANDS + b];
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds linked Fingerprint objects for every chunk
+     * @return Array of fingerprints
+     */
+    public Fingerprint[] toFingerprints(){
+        Fingerprint[] fc = new Fingerprint[size()];
+        for(int i = 0; i < fc.length; i++){
+            fc[i] = new Fingerprint(bandsOf(i), name, i);
+            if(i > 0){
+                fc[i-1].addNext(fc[i]);
+            }
+        }
+        return fc;
+    }
+}
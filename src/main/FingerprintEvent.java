@@ -0,0 +1,31 @@
+package main;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for fingerprinting one file, from reading its
+ * samples, or its decoder's output, to the last fingerprint
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+@Name("signalmatcher.Fingerprint")
+@Label("Fingerprint File")
+@Category("SignalMatcher")
+@Description("Fingerprinting of one file")
+public class FingerprintEvent extends jdk.jfr.Event {
+    /**
+     * Name of the file
+     */
+    @Label("File")
+    public String file;
+    /**
+     * Number of chunks fingerprinted
+     */
+    @Label("Chunks")
+    public int chunks;
+}
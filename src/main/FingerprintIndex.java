@@ -0,0 +1,484 @@
+package main;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An inverted index from fingerprint hashCodes to every chunk, of every
+ * indexed file, that has that hashCode
+ * Postings are kept in primitive arrays grouped by hash bucket, so
+ * chunks sharing a hashCode never overwrite each other
+ * An index never changes once built, so it can be searched by any
+ * number of threads; add, remove and replace return a new index that
+ * shares the postings of this one. Added files are laid out in a layer
+ * of their own, searched after these postings, and removed files are
+ * only tombstoned, so an update costs time in proportion to the files
+ * it changes; compact lays every file out again in one layer
+ * The first layer of an index opened from an IndexFile is read from
+ * the mapped file instead of the heap, and is never laid out again:
+ * compacting it only merges the layers added since it was opened
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class FingerprintIndex {
+    /**
+     * Most layers of added files an index has before it needs compacting
+     */
+    private static final int MAX_LAYERS = 16;
+    /**
+     * log2 of the number of postings in a window of mapped postings
+     */
+    private static final int WINDOW_BITS = MappedFile.WINDOW_BITS - 2;
+    /**
+     * Mask of the index of a posting within its window
+     */
+    private static final int WINDOW_MASK = (1 << WINDOW_BITS) - 1;
+    /**
+     * Fingerprints of every indexed file, by file id, or null where
+     * the file has been removed
+     */
+    private final FingerprintColumns[] files;
+    /**
+     * bucketStart[h] is the first posting with hashCode h, and
+     * bucketStart[h + 1] is one past its last
+     */
+    private final int[] bucketStart;
+    /**
+     * File id of every posting
+     */
+    private final int[] postingFile;
+    /**
+     * Chunk index of every posting
+     */
+    private final int[] postingChunk;
+    /**
+     * Windows of the mapped file the file id of every posting is read
+     * from instead of postingFile, or null
+     */
+    private final IntBuffer[] mappedFile;
+    /**
+     * Windows of the mapped file the chunk index of every posting is
+     * read from instead of postingChunk, or null
+     */
+    private final IntBuffer[] mappedChunk;
+    /**
+     * Number of postings in this layer
+     */
+    private final int count;
+    /**
+     * Number of files whose postings are mapped
+     */
+    private final int mappedFiles;
+    /**
+     * Next layer of postings, newest first, of files added since these
+     * postings were laid out, or null
+     */
+    private final FingerprintIndex added;
+    /**
+     * Number of layers from this one to the last
+     */
+    private final int layers;
+    /**
+     * Number of removed files
+     */
+    private final int removedFiles;
+    /**
+     * Number of postings of removed files, in every layer
+     */
+    private final int removedPostings;
+
+    /**
+     * Constructor for a FingerprintIndex
+     * @param files Fingerprints of every file, by file id
+     * @param postings Layer whose postings are searched first
+     * @param added Next layer, or null
+     * @param removedFiles Number of removed files
+     * @param removedPostings Number of postings of removed files
+     */
+    private FingerprintIndex(FingerprintColumns[] files,
+            FingerprintIndex postings, FingerprintIndex added,
+            int removedFiles, int removedPostings){
+        this.files = files;
+        this.bucketStart = postings.bucketStart;
+        this.postingFile = postings.postingFile;
+        this.postingChunk = postings.postingChunk;
+        this.mappedFile = postings.mappedFile;
+        this.mappedChunk = postings.mappedChunk;
+        this.count = postings.count;
+        this.mappedFiles = postings.mappedFiles;
+        this.added = added;
+        this.layers = 1 + (added == null ? 0 : added.layers);
+        this.removedFiles = removedFiles;
+        this.removedPostings = removedPostings;
+    }
+
+    /**
+     * Constructor for a FingerprintIndex laying out the postings of
+     * the given files
+     * @param files Fingerprints of every file, by file id
+     * @param from First file id laid out
+     * @param to File id after the last laid out
+     */
+    private FingerprintIndex(FingerprintColumns[] files, int from, int to){
+        this.files = files;
+        this.bucketStart = new int[Fingerprint.HASH_BUCKETS + 1];
+        int total = 0;
+        for(int id = from; id < to; id++){
+            if(files[id] != null){
+                total += files[id].size();
+            }
+        }
+        this.postingFile = new int[total];
+        this.postingChunk = new int[total];
+        this.mappedFile = null;
+        this.mappedChunk = null;
+        this.count = total;
+        this.mappedFiles = 0;
+        this.added = null;
+        this.layers = 1;
+        this.removedFiles = 0;
+        this.removedPostings = 0;
+        fill(from, to);
+    }
+
+    /**
+     * Constructor for a FingerprintIndex whose postings are in a mapped
+     * file
+     * @param files Fingerprints of every file, by file id
+     * @param bucketStart First posting of every hash bucket
+     * @param postingFile Mapped file id of every posting
+     * @param postingChunk Mapped chunk index of every posting
+     * @param count Number of postings
+     */
+    FingerprintIndex(FingerprintColumns[] files, int[] bucketStart,
+            MappedFile postingFile, MappedFile postingChunk, int count){
+        this.files = files;
+        this.bucketStart = bucketStart;
+        this.postingFile = null;
+        this.postingChunk = null;
+        this.mappedFile = postingFile.intWindows();
+        this.mappedChunk = postingChunk.intWindows();
+        this.count = count;
+        this.mappedFiles = files.length;
+        this.added = null;
+        this.layers = 1;
+        this.removedFiles = 0;
+        this.removedPostings = 0;
+    }
+
+    /**
+     * Builds an index over every chunk of the given files
+     * The position of a file in the list is its file id
+     * @param canonicalFiles Files to be indexed
+     * @return Index of the files
+     */
+    public static FingerprintIndex build(List<CanonicalFile> canonicalFiles){
+        int count = canonicalFiles.size();
+        FingerprintColumns[] files = new FingerprintColumns[count];
+        for(int f = 0; f < count; f++){
+            files[f] = canonicalFiles.get(f).fingerprintColumns();
+        }
+        return new FingerprintIndex(files, 0, count);
+    }
+
+    /**
+     * Lays out the postings of the given files by hash bucket with a
+     * counting sort, keeping them in (file id, chunk index) order
+     * within each bucket
+     * @param from First file id laid out
+     * @param to File id after the last laid out
+     */
+    private void fill(int from, int to){
+        for(int id = from; id < to; id++){
+            if(files[id] == null){
+                continue;
+            }
+            for(int c = 0; c < files[id].size(); c++){
+                bucketStart[files[id].hashOf(c) + 1]++;
+            }
+        }
+        for(int h = 0; h < Fingerprint.HASH_BUCKETS; h++){
+            bucketStart[h + 1] += bucketStart[h];
+        }
+        int[] next = new int[Fingerprint.HASH_BUCKETS];
+        System.arraycopy(bucketStart, 0, next, 0, next.length);
+        for(int id = from; id < to; id++){
+            if(files[id] == null){
+                continue;
+            }
+            for(int c = 0; c < files[id].size(); c++){
+                int p = next[files[id].hashOf(c)]++;
+                postingFile[p] = id;
+                postingChunk[p] = c;
+            }
+        }
+    }
+
+    /**
+     * Adds files to the index, giving them the file ids after the last
+     * Only the postings of the new files are laid out, in a new layer
+     * @param canonicalFiles Files to be added
+     * @return Index of the files of this index and the new files
+     */
+    public FingerprintIndex add(List<CanonicalFile> canonicalFiles){
+        return update(canonicalFiles, new int[0]);
+    }
+
+    /**
+     * Removes a file from the index
+     * The file id is tombstoned: getFile gives null for it from now on,
+     * and its postings are skipped until the index is compacted
+     * @param fileId File id
+     * @return Index of the files of this index but the removed one
+     */
+    public FingerprintIndex remove(int fileId){
+        return update(new ArrayList<CanonicalFile>(), new int[]{fileId});
+    }
+
+    /**
+     * Replaces a file of the index with a new version of it
+     * The old version is removed and the new one added, with a new
+     * file id
+     * @param fileId File id of the old version
+     * @param canonicalFile New version
+     * @return Index with the new version in place of the old one
+     */
+    public FingerprintIndex replace(int fileId, CanonicalFile canonicalFile){
+        ArrayList<CanonicalFile> added = new ArrayList<CanonicalFile>();
+        added.add(canonicalFile);
+        return update(added, new int[]{fileId});
+    }
+
+    /**
+     * Adds and removes files in one update
+     * Besides laying out the postings of the added files, this copies
+     * the table of files, one reference per file id
+     * @param canonicalFiles Files to be added
+     * @param removed File ids of files to be removed
+     * @return Updated index
+     */
+    public FingerprintIndex update(List<CanonicalFile> canonicalFiles,
+            int[] removed){
+        int count = files.length;
+        FingerprintColumns[] updated = Arrays.copyOf(files,
+                count + canonicalFiles.size());
+        for(int f = 0; f < canonicalFiles.size(); f++){
+            updated[count + f] = canonicalFiles.get(f).fingerprintColumns();
+        }
+        int removedCount = removedFiles;
+        int postings = removedPostings;
+        for(int id : removed){
+            if(updated[id] != null){
+                removedCount++;
+                // Files added by this update have no postings yet
+                postings += id < count ? updated[id].size() : 0;
+                updated[id] = null;
+            }
+        }
+        FingerprintIndex layer = added;
+        if(!canonicalFiles.isEmpty()){
+            layer = new FingerprintIndex(updated,
+                    new FingerprintIndex(updated, count, updated.length),
+                    added, 0, 0);
+        }
+        return new FingerprintIndex(updated, this, layer, removedCount,
+                postings);
+    }
+
+    /**
+     * Lays out the postings of every file that has not been removed in
+     * a single layer again
+     * This takes time in proportion to the whole index, so it is meant
+     * to be run in the background, and the result brought up to date
+     * with rebase
+     * @return Index of the same files, with one layer
+     */
+    public FingerprintIndex compact(){
+        if(mappedFile == null){
+            return new FingerprintIndex(files, 0, files.length);
+        }
+        FingerprintIndex layer = mappedFiles == files.length ? null
+                : new FingerprintIndex(files, mappedFiles, files.length);
+        return new FingerprintIndex(files, this, layer, 0, 0);
+    }
+
+    /**
+     * Applies a compaction of an earlier version of this index, keeping
+     * every update made since that version
+     * @param earlier Version of this index that was compacted; this
+     * index must have been derived from it by updates
+     * @param compacted Result of earlier.compact()
+     * @return Index of the same files as this one, with the layers
+     * added since the earlier version on top of the compacted postings
+     */
+    public FingerprintIndex rebase(FingerprintIndex earlier,
+            FingerprintIndex compacted){
+        return new FingerprintIndex(files, compacted,
+                layersSince(added, earlier.added, compacted.added),
+                removedFiles, removedPostings - earlier.removedPostings);
+    }
+
+    /**
+     * Copies the layers up to, but not including, a given layer
+     * @param layer First layer copied
+     * @param stop Layer to stop at
+     * @param tail Layer to follow the copies
+     * @return Copies of the layers followed by tail
+     */
+    private static FingerprintIndex layersSince(FingerprintIndex layer,
+            FingerprintIndex stop, FingerprintIndex tail){
+        if(layer == stop){
+            return tail;
+        }
+        return new FingerprintIndex(layer.files, layer,
+                layersSince(layer.added, stop, tail), 0, 0);
+    }
+
+    /**
+     * Checks whether enough files have been added or removed since the
+     * index was compacted that searching it has slowed down
+     * @return True if there are more than MAX_LAYERS layers, or if
+     * postings of added and removed files are over a quarter of the
+     * postings of the first layer, unless it is mapped; otherwise, false
+     */
+    public boolean needsCompaction(){
+        if(mappedFile != null){
+            return layers > MAX_LAYERS;
+        }
+        int changed = removedPostings;
+        for(FingerprintIndex l = added; l != null; l = l.added){
+            changed += l.count;
+        }
+        return layers > MAX_LAYERS || changed > count / 4;
+    }
+
+    /**
+     * Gets the next layer of postings, of files added since the
+     * postings of this layer were laid out
+     * Searching every layer, from the index itself to the last, finds
+     * every posting; each file's postings are all in one layer
+     * @return Next layer, or null if this is the last
+     */
+    public FingerprintIndex getAdded(){
+        return added;
+    }
+
+    /**
+     * Gets the first posting of the given hash bucket
+     * @param hash hashCode
+     * @return Index of the first posting with that hashCode
+     */
+    public int bucketStart(int hash){
+        return bucketStart[hash];
+    }
+
+    /**
+     * Gets the end of the given hash bucket
+     * @param hash hashCode
+     * @return One past the index of the last posting with that hashCode
+     */
+    public int bucketEnd(int hash){
+        return bucketStart[hash + 1];
+    }
+
+    /**
+     * Gets the first posting whose hashCode is within radius of hash
+     * Since postings are sorted by hashCode, every posting of this
+     * layer from rangeStart(hash, radius) up to rangeEnd(hash, radius)
+     * has a hashCode h with |h - hash| <= radius, and no other posting
+     * of this layer does
+     * @param hash hashCode
+     * @param radius Largest acceptable difference between hashCodes
+     * @return Index of the first posting in the range
+     */
+    public int rangeStart(int hash, int radius){
+        return bucketStart[Math.max(0, Math.min(
+                Fingerprint.HASH_BUCKETS, hash - radius))];
+    }
+
+    /**
+     * Gets the end of the postings whose hashCode is within radius
+     * of hash
+     * @param hash hashCode
+     * @param radius Largest acceptable difference between hashCodes
+     * @return One past the index of the last posting in the range
+     */
+    public int rangeEnd(int hash, int radius){
+        return bucketStart[Math.max(0, Math.min(
+                Fingerprint.HASH_BUCKETS, hash + radius + 1))];
+    }
+
+    /**
+     * Gets the file id of the given posting
+     * @param posting Index of a posting
+     * @return File id
+     */
+    public int fileOf(int posting){
+        if(mappedFile != null){
+            return mappedFile[posting >>> WINDOW_BITS]
+                    .get(posting & WINDOW_MASK);
+        }
+        return postingFile[posting];
+    }
+
+    /**
+     * Gets the chunk index of the given posting
+     * @param posting Index of a posting
+     * @return Chunk index within its file
+     */
+    public int chunkOf(int posting){
+        if(mappedChunk != null){
+            return mappedChunk[posting >>> WINDOW_BITS]
+                    .get(posting & WINDOW_MASK);
+        }
+        return postingChunk[posting];
+    }
+
+    /**
+     * Gets the fingerprints of an indexed file
+     * @param fileId File id
+     * @return Fingerprints of every chunk of the file, or null if it
+     * has been removed
+     */
+    public FingerprintColumns getFile(int fileId){
+        return files[fileId];
+    }
+
+    /**
+     * Gets the number of file ids, including those of removed files
+     * @return Number of files
+     */
+    public int getFileCount(){
+        return files.length;
+    }
+
+    /**
+     * Gets the number of indexed files that have not been removed
+     * @return Number of files
+     */
+    public int getLiveFileCount(){
+        return files.length - removedFiles;
+    }
+
+    /**
+     * Gets the name of an indexed file
+     * @param fileId File id
+     * @return Name of file
+     */
+    public String getName(int fileId){
+        return files[fileId].getName();
+    }
+
+    /**
+     * Gets the total number of postings in every layer, including those
+     * of removed files not yet compacted away
+     * @return Number of indexed chunks
+     */
+    public int size(){
+        return count + (added == null ? 0 : added.size());
+    }
+}
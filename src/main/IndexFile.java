@@ -0,0 +1,316 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A FingerprintIndex stored in a file that is memory-mapped when it is
+ * opened, so that reference files far larger than the heap can be
+ * searched: the heap holds only a name and a few offsets per file, and
+ * the operating system's page cache holds whichever postings and
+ * fingerprints are searched most
+ * An index file is written file by file, each file's fingerprints
+ * being dropped from the heap once written, and its postings are laid
+ * out by hash bucket in the file itself when it is finished
+ * Layout, little-endian, every section starting on a multiple of 8:
+ * a header; the columns of every file, as MappedColumns reads them;
+ * a table of the name, offset and number of chunks of every file; the
+ * first posting of every hash bucket; and the file id, then the chunk
+ * index, of every posting, as FingerprintIndex lays them out
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class IndexFile {
+    /**
+     * Marks the start of an index file
+     */
+    private static final int MAGIC = 0x534d4958;
+    /**
+     * Version of the index file layout
+     */
+    private static final int VERSION = 2;
+    /**
+     * Bytes reserved for the header
+     */
+    private static final int HEADER_BYTES = 64;
+    /**
+     * Number of band values stored per chunk
+     */
+    private static final int BANDS = Fingerprint.NUMBER_OF_BANDS;
+    /**
+     * File the index is written to once finished
+     */
+    private final File file;
+    /**
+     * File the index is written to until it is finished
+     */
+    private final File tmp;
+    /**
+     * Channel tmp is written through
+     */
+    private final FileChannel channel;
+    /**
+     * Byte offset of the next file's columns
+     */
+    private long position = HEADER_BYTES;
+    /**
+     * Name, byte offset and number of chunks of every file written
+     */
+    private final ByteArrayOutputStream table = new ByteArrayOutputStream();
+    /**
+     * Output onto table
+     */
+    private final DataOutputStream tableOut = new DataOutputStream(table);
+    /**
+     * Byte offset of the columns of every file written, by file id
+     */
+    private final ArrayList<Long> offsets = new ArrayList<Long>();
+    /**
+     * Number of chunks of every file written, by file id
+     */
+    private final ArrayList<Integer> sizes = new ArrayList<Integer>();
+    /**
+     * bucketCount[h + 1] is the number of chunks with hashCode h
+     */
+    private final int[] bucketCount = new int[Fingerprint.HASH_BUCKETS + 1];
+    /**
+     * Number of chunks written
+     */
+    private long total = 0;
+
+    /**
+     * Constructor for an IndexFile being written
+     * @param file File to write the index to
+     * @throws IOException If a temporary file cannot be created beside it
+     */
+    public IndexFile(File file) throws IOException {
+        this.file = file;
+        File dir = file.getAbsoluteFile().getParentFile();
+        this.tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        this.channel = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Writes the index of the given reference files, converting and
+     * fingerprinting a few at a time so the heap never holds more than
+     * those
+     * @param mode -f | -d
+     * @param target Relative or absolute path of the references
+     * @param indexFile File to write the index to
+     * @param dir Directory for converted files
+     */
+    public static void write(String mode, String target, File indexFile,
+            File dir){
+        long start = Stats.start();
+        ArrayList<FileWrapper> list =
+                FilesCreator.makeMusicFileList(mode, target);
+        Stats.HEADER_CHECKS.stop(start);
+        // Enough files at once to keep every conversion thread busy
+        int batch = 4 * ConversionPool.CONCURRENCY;
+        IndexFile index = null;
+        try{
+            index = new IndexFile(indexFile);
+            for(int from = 0; from < list.size(); from += batch){
+                List<FileWrapper> files = list.subList(from,
+                        Math.min(list.size(), from + batch));
+                for(CanonicalFile cf : ConversionPool.convertAll(files, dir)){
+                    index.add(cf.fingerprintColumns());
+                }
+            }
+            start = Stats.start();
+            index.finish();
+            Stats.INDEX_BUILD.stop(start);
+            Stats.INDEX_POSTINGS.add(index.total);
+        }
+        catch (IOException e){
+            if(index != null){
+                index.abandon();
+            }
+            Fatal.error("cannot write " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends the fingerprints of the next file, whose file id is the
+     * number of files added before it
+     * @param columns Fingerprints of the file
+     * @throws IOException If the file cannot be written
+     */
+    public void add(FingerprintColumns columns) throws IOException {
+        int chunks = columns.size();
+        long size = MappedColumns.byteSize(chunks);
+        if(size > 1L << MappedFile.WINDOW_BITS){
+            throw new IOException(columns.getName() + " is too long");
+        }
+        if(!MappedFile.inOneWindow(position, size)){
+            // MappedColumns reads each file from a single window
+            position = (position >>> MappedFile.WINDOW_BITS) + 1
+                    << MappedFile.WINDOW_BITS;
+        }
+        short[] hashes = columns.getHashes();
+        short[] bands = columns.getBands();
+        ByteBuffer buffer = ByteBuffer.allocate((int) size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for(int c = 0; c < chunks; c++){
+            buffer.putShort(hashes[c]);
+            bucketCount[hashes[c] + 1]++;
+        }
+        buffer.position((int) MappedColumns.align(buffer.position()));
+        for(int i = 0; i < chunks * BANDS; i++){
+            buffer.putShort(bands[i]);
+        }
+        buffer.flip();
+        writeFully(buffer, position);
+        tableOut.writeUTF(columns.getName());
+        tableOut.writeLong(position);
+        tableOut.writeInt(chunks);
+        offsets.add(position);
+        sizes.add(chunks);
+        position += buffer.limit();
+        total += chunks;
+    }
+
+    /**
+     * Writes the table of files and the postings, and puts the finished
+     * index in place of any earlier one
+     * @throws IOException If the file cannot be written, or holds more
+     * postings than an index can address
+     */
+    public void finish() throws IOException {
+        if(total > Integer.MAX_VALUE){
+            throw new IOException("more than " + Integer.MAX_VALUE +
+                    " fingerprints");
+        }
+        long tableAt = position;
+        writeFully(ByteBuffer.wrap(table.toByteArray()), tableAt);
+        long bucketsAt = MappedColumns.align(tableAt + table.size());
+        ByteBuffer buckets = ByteBuffer.allocate(4 * bucketCount.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for(int h = 0; h < Fingerprint.HASH_BUCKETS; h++){
+            bucketCount[h + 1] += bucketCount[h];
+        }
+        for(int start : bucketCount){
+            buckets.putInt(start);
+        }
+        buckets.flip();
+        writeFully(buckets, bucketsAt);
+        long postingsAt = MappedColumns.align(bucketsAt + buckets.limit());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(offsets.size())
+                .putInt((int) total).putLong(tableAt).putLong(bucketsAt)
+                .putLong(postingsAt);
+        header.position(0);
+        writeFully(header, 0);
+        // Extends the file to the end of the postings
+        writeFully(ByteBuffer.allocate(1), postingsAt + 8 * total);
+        channel.close();
+
+        // Lays out the postings with a counting sort, as
+        // FingerprintIndex does, in the mapped file
+        MappedFile mapped = new MappedFile(tmp, true);
+        int[] next = new int[Fingerprint.HASH_BUCKETS];
+        System.arraycopy(bucketCount, 0, next, 0, next.length);
+        long chunkAt = postingsAt + 4 * total;
+        for(int id = 0; id < offsets.size(); id++){
+            long hashesAt = offsets.get(id);
+            for(int c = 0; c < sizes.get(id); c++){
+                int p = next[mapped.getShort(hashesAt + 2L * c)]++;
+                mapped.putInt(postingsAt + 4L * p, id);
+                mapped.putInt(chunkAt + 4L * p, c);
+            }
+        }
+        mapped.force();
+        if(!tmp.renameTo(file)){
+            tmp.delete();
+            throw new IOException("cannot replace " + file);
+        }
+    }
+
+    /**
+     * Deletes an index file that will not be finished
+     */
+    public void abandon(){
+        try{
+            channel.close();
+        }
+        catch (IOException e){
+            // Deleted all the same
+        }
+        tmp.delete();
+    }
+
+    /**
+     * Writes the whole of a buffer at a position of the file
+     * @param buffer Bytes to write
+     * @param at Byte offset in the file
+     * @throws IOException If the file cannot be written
+     */
+    private void writeFully(ByteBuffer buffer, long at) throws IOException {
+        while(buffer.hasRemaining()){
+            at += channel.write(buffer, at);
+        }
+    }
+
+    /**
+     * Opens an index file, mapping it into memory
+     * @param file Index file
+     * @return Index of the files it holds, by the order they were added
+     * @throws IOException If the file cannot be read or is not an index
+     * file
+     */
+    public static FingerprintIndex open(File file) throws IOException {
+        if(!file.isFile()){
+            throw new IOException(file + " does not exist");
+        }
+        MappedFile mapped = new MappedFile(file, false);
+        if(file.length() < HEADER_BYTES || mapped.getInt(0) != MAGIC ||
+                mapped.getInt(4) != VERSION){
+            throw new IOException(file + " is not an index file");
+        }
+        int count = mapped.getInt(8);
+        int total = mapped.getInt(12);
+        long tableAt = mapped.getLong(16);
+        long bucketsAt = mapped.getLong(24);
+        long postingsAt = mapped.getLong(32);
+        FingerprintColumns[] files = new FingerprintColumns[count];
+        FileInputStream stream = new FileInputStream(file);
+        try{
+            stream.getChannel().position(tableAt);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(stream));
+            for(int id = 0; id < count; id++){
+                String name = in.readUTF();
+                long offset = in.readLong();
+                int chunks = in.readInt();
+                files[id] = new MappedColumns(name, mapped, offset, chunks);
+            }
+        }
+        finally {
+            stream.close();
+        }
+        int[] bucketStart = new int[Fingerprint.HASH_BUCKETS + 1];
+        for(int h = 0; h < bucketStart.length; h++){
+            bucketStart[h] = mapped.getInt(bucketsAt + 4L * h);
+        }
+        return new FingerprintIndex(files, bucketStart,
+                new MappedFile(file, postingsAt, 4L * total, false),
+                new MappedFile(file, postingsAt + 4L * total, 4L * total,
+                        false),
+                total);
+    }
+}
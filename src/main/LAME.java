@@ -21,6 +21,10 @@ public class LAME {
      */
     private static final String CANONICAL_SR_STRING =
             Integer.toString(CANONICAL_SAMPLING_RATE);
+    /**
+     * Location of the LAME executable
+     */
+    private static final String LAME_PATH = "/course/cs4500f14/bin/lame";
 
     /**
      * /**
@@ -31,27 +35,30 @@ public class LAME {
      */
     public static void convert(String infile,
             String outfile, List<String> opts){
-        ProcessBuilder lamePB = new ProcessBuilder();
         ArrayList<String> lameargs = new ArrayList<String>();
 
-        String lamePath = "/course/cs4500f14/bin/lame";
-        lameargs.add(lamePath);
+        lameargs.add(LAME_PATH);
         lameargs.addAll(opts);
         lameargs.add(infile);
         lameargs.add(outfile);
 
-        lamePB.command(lameargs);
+        DecoderProcess.run(lameargs, new File(infile).getName());
+    }
 
-        Process lameP = null;
-        try{
-            lameP = lamePB.start();
-            lameP.waitFor();
-        }
-        catch (Exception e){
-            System.out.println("ERROR: "
-                    + e.getMessage());
-            System.exit(1);
-        }
+    /**
+     * Builds the command that decodes an .mp3 file and writes it as
+     * a WAV file to standard output
+     * @param targetFilePath Path to the .mp3 file
+     * @return LAME command line
+     */
+    public static List<String> decodeCommand(String targetFilePath){
+        ArrayList<String> args = new ArrayList<String>();
+        args.add(LAME_PATH);
+        args.add("--silent");
+        args.add("--decode");
+        args.add(targetFilePath);
+        args.add("-");
+        return args;
     }
 
     /**
@@ -66,15 +73,16 @@ public class LAME {
         args.add("--silent");
         args.add("--resample");
         args.add(CANONICAL_SR_STRING);
-        File dir = new File(newFilePath);
-        File intermed = new File(dir.getParentFile(), 
-                "intermediate-file-transform.mp3");
+        // Named after the output so that conversions running at the
+        // same time never share an intermediate file
+        File intermed = new File(newFilePath + ".resampled.mp3");
 
         convert(targetFilePath, intermed.getAbsolutePath(), args);
         ArrayList<String> args2 = new ArrayList<String>();
         args2.add("--silent");
         args2.add("--decode");
         convert(intermed.getAbsolutePath(), newFilePath, args2);
+        intermed.delete();
     }
     /**
      * Converts .wav targetFile to .mp3 and then back to .wav format 
@@ -96,5 +104,6 @@ public class LAME {
 
         convertMP3toCanonical(mp3Mediary.getAbsolutePath(),
                 newFilePath);
+        mp3Mediary.delete();
     }
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A FingerprintIndex of reference files that are added, replaced and
+ * removed by name while it is being searched
+ * Searches use the index returned by current, which never changes;
+ * each update publishes a new index that shares the postings of the
+ * last, so it costs time in proportion to the files it changes
+ * When the layers of added files and the postings of removed ones have
+ * built up, the index is compacted on a background thread and the
+ * updates made meanwhile are applied on top of the result
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class LiveIndex {
+    /**
+     * Index searched by new requests
+     */
+    private volatile FingerprintIndex index;
+    /**
+     * File id of every file that has not been removed, by name
+     */
+    private final HashMap<String, Integer> ids =
+            new HashMap<String, Integer>();
+    /**
+     * Thread the index is compacted on
+     */
+    private final ExecutorService compactor =
+            Executors.newSingleThreadExecutor(new ThreadFactory(){
+                @Override
+                public Thread newThread(Runnable r){
+                    Thread t = new Thread(r, "index-compactor");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    /**
+     * Is a compaction running?
+     */
+    private boolean compacting = false;
+
+    /**
+     * Constructor for a LiveIndex
+     * Files with the same name as a later file are replaced by it
+     * @param index Index of the reference files
+     */
+    public LiveIndex(FingerprintIndex index){
+        ArrayList<Integer> removed = new ArrayList<Integer>();
+        for(int id = 0; id < index.getFileCount(); id++){
+            if(index.getFile(id) != null){
+                Integer old = ids.put(index.getName(id), id);
+                if(old != null){
+                    removed.add(old);
+                }
+            }
+        }
+        if(!removed.isEmpty()){
+            index = index.update(new ArrayList<CanonicalFile>(),
+                    toArray(removed));
+        }
+        this.index = index;
+    }
+
+    /**
+     * Gets the index as of the last update
+     * @return Index, which does not change
+     */
+    public FingerprintIndex current(){
+        return index;
+    }
+
+    /**
+     * Adds files to the index, replacing any indexed file with the same
+     * name as one of them
+     * @param files Files to be added; their fingerprints are computed
+     * here if they have not been
+     * @return For each file, true if it replaced an indexed file, or
+     * false if it was new
+     */
+    public boolean[] put(List<CanonicalFile> files){
+        // Fingerprinted before locking, so one slow file does not hold
+        // up other updates
+        for(CanonicalFile cf : files){
+            cf.fingerprintColumns();
+        }
+        boolean[] replaced = new boolean[files.size()];
+        synchronized(this){
+            ArrayList<Integer> removed = new ArrayList<Integer>();
+            int next = index.getFileCount();
+            for(int f = 0; f < files.size(); f++){
+                Integer old = ids.put(files.get(f).getName(), next + f);
+                if(old != null){
+                    // An id below next was indexed before this update;
+                    // above, it is an earlier file of this update
+                    removed.add(old);
+                    replaced[f] = old < next;
+                }
+            }
+            publish(index.update(files, toArray(removed)));
+        }
+        return replaced;
+    }
+
+    /**
+     * Removes a file from the index
+     * @param name Name of the file
+     * @return True if it was indexed; otherwise, false
+     */
+    public synchronized boolean remove(String name){
+        Integer id = ids.remove(name);
+        if(id == null){
+            return false;
+        }
+        publish(index.remove(id));
+        return true;
+    }
+
+    /**
+     * Makes an updated index current and starts compacting it if it
+     * needs to be and no compaction is running
+     * @param updated Updated index
+     */
+    private synchronized void publish(FingerprintIndex updated){
+        index = updated;
+        if(compacting || !updated.needsCompaction()){
+            return;
+        }
+        compacting = true;
+        final FingerprintIndex earlier = updated;
+        compactor.execute(new Runnable(){
+            @Override
+            public void run(){
+                FingerprintIndex compacted = null;
+                try{
+                    compacted = earlier.compact();
+                }
+                finally {
+                    finishCompaction(earlier, compacted);
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the result of a compaction current, with the updates made
+     * while it ran applied on top
+     * @param earlier Index that was compacted
+     * @param compacted Result of the compaction, or null if it failed
+     */
+    private synchronized void finishCompaction(FingerprintIndex earlier,
+            FingerprintIndex compacted){
+        compacting = false;
+        if(compacted != null){
+            publish(index.rebase(earlier, compacted));
+        }
+    }
+
+    /**
+     * Copies a list of file ids into an array
+     * @param list File ids
+     * @return Array of the same file ids
+     */
+    private static int[] toArray(List<Integer> list){
+        int[] array = new int[list.size()];
+        for(int i = 0; i < array.length; i++){
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
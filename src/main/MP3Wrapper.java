@@ -28,6 +28,10 @@ public class MP3Wrapper extends FileWrapper {
 
     @Override
     public CanonicalFile convert(File targetFile) {
+        if(STREAMING) {
+            return new CanonicalFile(file.getName(),
+                    LAME.decodeCommand(file.getAbsolutePath()));
+        }
         File newFile = new File(targetFile, 
                 file.getName().concat(".wav"));
         LAME.convertMP3toCanonical(file.getAbsolutePath(),
@@ -0,0 +1,249 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * The fingerprints of every chunk of one file, read from an IndexFile
+ * mapped into memory instead of held on the heap
+ * The columns are laid out as in FingerprintColumns: the hashCode of
+ * every chunk, then NUMBER_OF_BANDS bands per chunk, each column
+ * starting on a multiple of 8 and both within one window of the
+ * MappedFile
+ * Packed fingerprints are not stored but packed from the mapped bands
+ * whenever one is asked for
+ * Comparisons read this file's columns from the mapping and the other
+ * file's through getBands and packedOf, so they are fastest when the
+ * other file is on the heap, as a query is
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class MappedColumns extends FingerprintColumns {
+    /**
+     * Number of band values stored per chunk
+     */
+    private static final int BANDS = Fingerprint.NUMBER_OF_BANDS;
+    /**
+     * Number of chunks
+     */
+    private final int chunks;
+    /**
+     * hashCode of every chunk
+     */
+    private final ShortBuffer hashes;
+    /**
+     * Bands of every chunk, BANDS values per chunk
+     */
+    private final ShortBuffer bands;
+
+    /**
+     * Constructor for MappedColumns
+     * @param name Name of file
+     * @param file Mapped index file
+     * @param offset Byte offset of the columns, a multiple of 8
+     * @param chunks Number of chunks
+     */
+    public MappedColumns(String name, MappedFile file, long offset,
+            int chunks){
+        super(name, 0);
+        this.chunks = chunks;
+        ByteBuffer columns = file.slice(offset, (int) byteSize(chunks));
+        int bandsAt = (int) align(2L * chunks);
+        this.hashes = column(columns, 0, 2 * chunks).asShortBuffer();
+        this.bands = column(columns, bandsAt, 2 * BANDS * chunks)
+                .asShortBuffer();
+    }
+
+    /**
+     * Gets one column of the columns of a file
+     * @param columns Columns of the file
+     * @param at Byte offset of the column
+     * @param length Number of bytes in the column
+     * @return Little-endian buffer over the column
+     */
+    private static ByteBuffer column(ByteBuffer columns, int at,
+            int length){
+        ByteBuffer column = columns.duplicate();
+        column.position(at);
+        column.limit(at + length);
+        return column.slice().order(columns.order());
+    }
+
+    /**
+     * Gets the number of bytes the columns of a file take up
+     * @param chunks Number of chunks
+     * @return Bytes, a multiple of 8
+     */
+    public static long byteSize(int chunks){
+        return align(2L * chunks) + align(2L * BANDS * chunks);
+    }
+
+    /**
+     * Rounds a byte count up to a multiple of 8
+     * @param bytes Byte count
+     * @return Rounded byte count
+     */
+    static long align(long bytes){
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Gets the number of chunks, from the file's header
+     * @return Number of chunks
+     */
+    @Override
+    public int size(){
+        return chunks;
+    }
+
+    /**
+     * Gets the hashCode of a chunk, read from the mapping
+     * @param chunk Chunk index
+     * @return hashCode of its fingerprint
+     */
+    @Override
+    public int hashOf(int chunk){
+        return hashes.get(chunk);
+    }
+
+    /**
+     * Packs the fingerprint of a chunk from its bands in the mapping,
+     * as packed fingerprints are not stored in the file
+     * @param chunk Chunk index
+     * @return Packed fingerprint
+     */
+    @Override
+    public long packedOf(int chunk){
+        long result = 0;
+        int i = chunk * BANDS;
+        for(int b = 0; b < BANDS; b++){
+            result |= packBand(bands.get(i + b), b);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the Euclidean distance between a chunk of this file,
+     * read from the mapping, and a chunk of another
+     * @param chunk Chunk index in this file
+     * @param other Columns of the other file
+     * @param otherChunk Chunk index in the other file
+     * @return Euclidean distance between the two chunks
+     */
+    @Override
+    public int distance(int chunk, FingerprintColumns other, int otherChunk){
+        ShortBuffer a = bands;
+        short[] b = other.getBands();
+        int i = chunk * BANDS;
+        int j = otherChunk * BANDS;
+        int output = 0;
+        for(int n = 0; n < BANDS; n++){
+            int diff = a.get(i + n) - b[j + n];
+            output += diff * diff;
+        }
+        return (int) Math.sqrt(output);
+    }
+
+    /**
+     * Checks if a chunk of this file, read from the mapping, is within
+     * maxDistance of a chunk of another, stopping early as
+     * FingerprintColumns.isWithin does
+     * @param chunk Chunk index in this file
+     * @param other Columns of the other file
+     * @param otherChunk Chunk index in the other file
+     * @param maxDistance Largest acceptable distance
+     * @return True if the chunks are within maxDistance; otherwise, false
+     */
+    @Override
+    public boolean isWithin(int chunk, FingerprintColumns other,
+            int otherChunk, int maxDistance){
+        ShortBuffer a = bands;
+        short[] b = other.getBands();
+        int i = chunk * BANDS;
+        int j = otherChunk * BANDS;
+        int limit = (maxDistance + 1) * (maxDistance + 1);
+        int d0 = a.get(i) - b[j];
+        int d1 = a.get(i + 1) - b[j + 1];
+        int output = d0 * d0 + d1 * d1;
+        if(output >= limit){
+            return false;
+        }
+        for(int n = 2; n < BANDS; n++){
+            int diff = a.get(i + n) - b[j + n];
+            output += diff * diff;
+        }
+        return output < limit;
+    }
+
+    /**
+     * Computes the distance between the packed fingerprints of a chunk
+     * of this file, packed from the mapping, and a chunk of another
+     * @param chunk Chunk index in this file
+     * @param other Columns of the other file
+     * @param otherChunk Chunk index in the other file
+     * @return Sum of the differences of their quantized bands
+     */
+    @Override
+    public int packedDistance(int chunk, FingerprintColumns other,
+            int otherChunk){
+        return packedDistance(packedOf(chunk), other.packedOf(otherChunk));
+    }
+
+    /**
+     * Copies the band values of every chunk onto the heap
+     * @return Array of NUMBER_OF_BANDS values per chunk
+     */
+    @Override
+    public short[] getBands(){
+        short[] copy = new short[chunks * BANDS];
+        bands.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Copies the hashCodes of every chunk onto the heap
+     * @return Array of hashCodes
+     */
+    @Override
+    public short[] getHashes(){
+        short[] copy = new short[chunks];
+        hashes.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Copies the bands of one chunk from the mapping
+     * @param chunk Chunk index
+     * @return Array of NUMBER_OF_BANDS ints
+     */
+    @Override
+    public int[] bandsOf(int chunk){
+        int[] result = new int[BANDS];
+        for(int b = 0; b < BANDS; b++){
+            result[b] = bands.get(chunk * BANDS + b);
+        }
+        return result;
+    }
+
+    /**
+     * Mapped columns are read-only
+     * @param chunkBands Scaled frequency bands of the chunk
+     */
+    @Override
+    public void add(int[] chunkBands){
+        throw new UnsupportedOperationException("mapped columns");
+    }
+
+    /**
+     * Mapped columns are read-only
+     * @param chunkBands Scaled frequency bands of the chunks
+     * @param hashCodes hashCode of each chunk
+     * @param count Number of chunks
+     */
+    @Override
+    public void addAll(int[] chunkBands, int[] hashCodes, int count){
+        throw new UnsupportedOperationException("mapped columns");
+    }
+}
@@ -0,0 +1,171 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A region of a file mapped into memory in windows of 1 GiB, read and
+ * written by byte offset as little-endian values
+ * The pages live in the operating system's page cache rather than the
+ * Java heap, so a file much larger than the heap can be read with
+ * hot regions kept in memory and cold ones read from disk as needed
+ * Values must be aligned to their size, so that none straddles two
+ * windows
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class MappedFile {
+    /**
+     * log2 of the size of a window
+     */
+    public static final int WINDOW_BITS = 30;
+    /**
+     * Mask of the offset within a window
+     */
+    private static final long WINDOW_MASK = (1L << WINDOW_BITS) - 1;
+    /**
+     * Mapped windows, in file order
+     */
+    private final MappedByteBuffer[] windows;
+
+    /**
+     * Constructor for a MappedFile mapping a whole file
+     * @param file File to map
+     * @param writable True to map the file for writing as well
+     * @throws IOException If the file cannot be opened or mapped
+     */
+    public MappedFile(File file, boolean writable) throws IOException {
+        this(file, 0, file.length(), writable);
+    }
+
+    /**
+     * Constructor for a MappedFile mapping part of a file, whose byte
+     * offsets are then counted from the start of that part
+     * @param file File to map
+     * @param start Byte offset in the file of the first byte mapped
+     * @param size Number of bytes mapped
+     * @param writable True to map the file for writing as well
+     * @throws IOException If the file cannot be opened or mapped
+     */
+    public MappedFile(File file, long start, long size, boolean writable)
+            throws IOException {
+        FileChannel channel = writable
+                ? FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try{
+            windows = new MappedByteBuffer[
+                    (int) ((size + WINDOW_MASK) >>> WINDOW_BITS)];
+            for(int w = 0; w < windows.length; w++){
+                long from = (long) w << WINDOW_BITS;
+                windows[w] = channel.map(writable
+                        ? FileChannel.MapMode.READ_WRITE
+                        : FileChannel.MapMode.READ_ONLY,
+                        start + from, Math.min(size - from, WINDOW_MASK + 1));
+                windows[w].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        finally {
+            // Mappings stay valid once their channel is closed
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks whether a range of bytes lies within one window
+     * @param offset Byte offset of the first byte
+     * @param length Number of bytes
+     * @return True if slice can be given the range; otherwise, false
+     */
+    public static boolean inOneWindow(long offset, long length){
+        return length == 0 || offset >>> WINDOW_BITS ==
+                (offset + length - 1) >>> WINDOW_BITS;
+    }
+
+    /**
+     * Gets a little-endian buffer over a range of bytes within one
+     * window, which reads faster than getShort and the like
+     * @param offset Byte offset of the first byte
+     * @param length Number of bytes
+     * @return Buffer whose index 0 is the byte at offset
+     */
+    public ByteBuffer slice(long offset, int length){
+        ByteBuffer window = windows[(int) (offset >>> WINDOW_BITS)]
+                .duplicate();
+        window.position((int) (offset & WINDOW_MASK));
+        window.limit(window.position() + length);
+        return window.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Gets every window as a buffer of ints, so that the int at index i
+     * of the mapped region is at index i & ((1 << (WINDOW_BITS - 2)) - 1)
+     * of window i >>> (WINDOW_BITS - 2)
+     * @return One IntBuffer per window
+     */
+    public IntBuffer[] intWindows(){
+        IntBuffer[] ints = new IntBuffer[windows.length];
+        for(int w = 0; w < windows.length; w++){
+            ints[w] = windows[w].duplicate().order(ByteOrder.LITTLE_ENDIAN)
+                    .asIntBuffer();
+        }
+        return ints;
+    }
+
+    /**
+     * Reads a short
+     * @param offset Byte offset, a multiple of 2
+     * @return Value
+     */
+    public short getShort(long offset){
+        return windows[(int) (offset >>> WINDOW_BITS)]
+                .getShort((int) (offset & WINDOW_MASK));
+    }
+
+    /**
+     * Reads an int
+     * @param offset Byte offset, a multiple of 4
+     * @return Value
+     */
+    public int getInt(long offset){
+        return windows[(int) (offset >>> WINDOW_BITS)]
+                .getInt((int) (offset & WINDOW_MASK));
+    }
+
+    /**
+     * Reads a long
+     * @param offset Byte offset, a multiple of 8
+     * @return Value
+     */
+    public long getLong(long offset){
+        return windows[(int) (offset >>> WINDOW_BITS)]
+                .getLong((int) (offset & WINDOW_MASK));
+    }
+
+    /**
+     * Writes an int to a file mapped for writing
+     * @param offset Byte offset, a multiple of 4
+     * @param value Value
+     */
+    public void putInt(long offset, int value){
+        windows[(int) (offset >>> WINDOW_BITS)]
+                .putInt((int) (offset & WINDOW_MASK), value);
+    }
+
+    /**
+     * Writes every change to a file mapped for writing to disk
+     */
+    public void force(){
+        for(MappedByteBuffer window : windows){
+            window.force();
+        }
+    }
+}
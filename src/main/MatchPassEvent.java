@@ -0,0 +1,64 @@
+package main;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one pass of a query file, or of one shard
+ * of it, over the index
+ * The pass covers every indexed file at once, so the indexed file that
+ * took the most chain verifications is named to tie the time of the
+ * pass to its most expensive file pair
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+@Name("signalmatcher.MatchPass")
+@Label("Match Pass")
+@Category("SignalMatcher")
+@Description("Search of the index for the chunks of a query")
+public class MatchPassEvent extends jdk.jfr.Event {
+    /**
+     * Name of the query file
+     */
+    @Label("Query")
+    public String query;
+    /**
+     * First query chunk searched
+     */
+    @Label("From Chunk")
+    public int from;
+    /**
+     * Query chunk after the last searched
+     */
+    @Label("To Chunk")
+    public int to;
+    /**
+     * Indexed fingerprints within the hash window of a query chunk
+     */
+    @Label("Candidates")
+    public long candidates;
+    /**
+     * Fragments compared by chainCompare
+     */
+    @Label("Verifications")
+    public long verifications;
+    /**
+     * Indexed files the query matched in this pass
+     */
+    @Label("Matches")
+    public int matches;
+    /**
+     * Name of the indexed file with the most verifications, or null
+     */
+    @Label("Costliest File")
+    public String costliestFile;
+    /**
+     * Verifications of the query against costliestFile
+     */
+    @Label("Costliest File Verifications")
+    public long costliestVerifications;
+}
@@ -0,0 +1,392 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves comparisons against one set of reference files over HTTP on
+ * the loopback interface, so the references are fingerprinted and
+ * indexed once and every query runs in a JVM that is already warm
+ * A request to /match names its query with f=path or d=path, exactly
+ * as -f and -d do on the command line, or sends a WAV file as its body
+ * with name=name; the response is the MATCH lines SignalMatcher would
+ * print, in the same order
+ * Requests are served concurrently; an error fails only its request,
+ * with status 400 and the error as the body
+ * Every request searches on the threads SignalMatcher.matchAll shares,
+ * so concurrent queries share ConversionPool.CONCURRENCY matching
+ * threads rather than starting that many each
+ * References are added, or replaced by a file of the same name, with
+ * /add and f=path, d=path or a posted WAV file, and removed with
+ * /remove and name=name; only the changed files are fingerprinted and
+ * indexed, and a query being served keeps the references it started
+ * with
+ * A server of one Shard of the references also answers a
+ * ShardCoordinator at /shard; its file ids must stay positions within
+ * the shard, so it refuses /add and /remove
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class MatchServer {
+    /**
+     * Name of a query sent as a request body without a name
+     */
+    private static final String DEFAULT_STREAM_NAME = "stream.wav";
+    /**
+     * Index of the reference files
+     */
+    private final LiveIndex index;
+    /**
+     * Shard of the reference files served
+     */
+    private final Shard shard;
+    /**
+     * HTTP server, once started
+     */
+    private HttpServer server;
+    /**
+     * Threads requests are served on, once started
+     */
+    private ExecutorService requests;
+
+    /**
+     * Constructor for a MatchServer
+     * @param index Index of the reference files
+     */
+    public MatchServer(FingerprintIndex index){
+        this(index, Shard.WHOLE);
+    }
+
+    /**
+     * Constructor for a MatchServer of one shard of the reference files
+     * @param index Index of the reference files of the shard
+     * @param shard Shard of the reference files
+     */
+    public MatchServer(FingerprintIndex index, Shard shard){
+        this.index = new LiveIndex(index);
+        this.shard = shard;
+    }
+
+    /**
+     * Fingerprints and indexes the reference files, then serves
+     * requests until the program is stopped
+     * @param port Loopback port to listen on, or 0 for any free port
+     * @param mode -f | -d | -i
+     * @param target Relative or absolute path of the references, or of
+     * their IndexFile
+     * @param shard Shard of the references to serve
+     */
+    public static void serve(int port, String mode, String target,
+            Shard shard){
+        Fatal.serve();
+        try{
+            File dir = Files.createTempDirectory("signalmatcher").toFile();
+            FingerprintIndex index;
+            try{
+                index = SignalMatcher.createIndex(mode, target, dir,
+                        shard);
+            }
+            finally {
+                deleteTree(dir);
+            }
+            MatchServer server = new MatchServer(index, shard);
+            server.start(port);
+            System.out.println("Serving " + index.getLiveFileCount() +
+                    " files" + (shard.getCount() > 1
+                            ? " of shard " + shard : "") +
+                    " at http://" +
+                    InetAddress.getLoopbackAddress().getHostAddress() +
+                    ":" + server.getPort() + "/match");
+        }
+        catch (Fatal.RequestFailedException e){
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+        catch (IOException e){
+            System.err.println("ERROR: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Starts serving requests on ConversionPool.CONCURRENCY threads
+     * @param port Loopback port to listen on, or 0 for any free port
+     * @throws IOException If the port cannot be listened on
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        HttpHandler handler = new HttpHandler(){
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serveRequest(exchange);
+            }
+        };
+        server.createContext("/match", handler);
+        server.createContext("/add", handler);
+        server.createContext("/remove", handler);
+        server.createContext("/shard", handler);
+        requests = Executors.newFixedThreadPool(ConversionPool.CONCURRENCY);
+        server.setExecutor(requests);
+        server.start();
+    }
+
+    /**
+     * Gets the port requests are served on
+     * @return Port number
+     */
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving requests, waiting for none, and the threads they
+     * were served on
+     */
+    public void stop(){
+        server.stop(0);
+        requests.shutdownNow();
+    }
+
+    /**
+     * Answers one request to /match, /add, /remove or /shard
+     * @param exchange Request and its response
+     * @throws IOException If the response cannot be sent
+     */
+    private void serveRequest(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        int status = 200;
+        StringBuilder body = new StringBuilder();
+        try{
+            HashMap<String, String> params =
+                    parseQuery(exchange.getRequestURI().getRawQuery());
+            String path = exchange.getHttpContext().getPath();
+            if(shard.getCount() > 1 && (path.equals("/add") ||
+                    path.equals("/remove"))) {
+                Fatal.error("the references of shard " + shard +
+                        " cannot be changed");
+            }
+            List<String> lines = path.equals("/add") ? add(exchange, params)
+                    : path.equals("/remove") ? remove(params)
+                    : path.equals("/shard") ? matchShard(exchange)
+                    : match(exchange, params);
+            for(String line : lines){
+                body.append(line).append('\n');
+            }
+        }
+        catch (Fatal.RequestFailedException e){
+            status = 400;
+            body.append("ERROR: ").append(e.getMessage()).append('\n');
+        }
+        catch (RuntimeException e){
+            status = 500;
+            body.append("ERROR: ").append(e).append('\n');
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().set("X-Elapsed-Ms", Long.toString(
+                (System.nanoTime() - start) / 1000000));
+        exchange.getResponseHeaders().set(ShardCoordinator.SHARD_HEADER,
+                shard.toString());
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * Matches the query of a request against the references
+     * @param exchange Request
+     * @param params Parameters of the request
+     * @return MATCH lines, ordered as SignalMatcher prints them
+     * @throws IOException If a temporary directory cannot be created
+     */
+    private List<String> match(HttpExchange exchange,
+            HashMap<String, String> params) throws IOException {
+        ArrayList<CanonicalFile> queries = readFiles(exchange, params);
+        FingerprintIndex index = this.index.current();
+        long start = Stats.start();
+        String[][] matches = SignalMatcher.matchAll(index, queries);
+        Stats.MATCHING.stop(start);
+        Stats.FILE_PAIRS.add((long) index.getLiveFileCount() *
+                queries.size());
+        List<String> lines = SignalMatcher.orderedMatches(index, matches);
+        Stats.FILE_PAIRS_MATCHED.add(lines.size());
+        return lines;
+    }
+
+    /**
+     * Matches the fingerprinted queries posted by a ShardCoordinator
+     * against the references of this shard
+     * @param exchange Request
+     * @return Position of the reference within the shard, index of the
+     * query and MATCH line of each match, ordered as SignalMatcher
+     * prints them
+     * @throws IOException If the request body cannot be closed
+     */
+    private List<String> matchShard(HttpExchange exchange)
+            throws IOException {
+        if(!exchange.getRequestMethod().equals("POST")){
+            Fatal.error("a request to /shard needs the fingerprints " +
+                    "of its queries posted as its body");
+        }
+        InputStream in = exchange.getRequestBody();
+        ArrayList<CanonicalFile> queries =
+                ShardCoordinator.readQueries(in);
+        in.close();
+        FingerprintIndex index = this.index.current();
+        long start = Stats.start();
+        String[][] matches = SignalMatcher.matchAll(index, queries);
+        Stats.MATCHING.stop(start);
+        Stats.FILE_PAIRS.add((long) index.getLiveFileCount() *
+                queries.size());
+        ArrayList<String> lines = new ArrayList<String>();
+        for(int id = 0; id < index.getFileCount(); id++){
+            for(int q = 0; q < matches.length; q++){
+                if(matches[q][id] != null){
+                    lines.add(id + " " + q + " " + matches[q][id]);
+                }
+            }
+        }
+        Stats.FILE_PAIRS_MATCHED.add(lines.size());
+        return lines;
+    }
+
+    /**
+     * Adds the files of a request to the references, replacing any
+     * reference with the same name
+     * @param exchange Request
+     * @param params Parameters of the request
+     * @return ADDED or REPLACED and the name of each file
+     * @throws IOException If a temporary directory cannot be created
+     */
+    private List<String> add(HttpExchange exchange,
+            HashMap<String, String> params) throws IOException {
+        ArrayList<CanonicalFile> files = readFiles(exchange, params);
+        long start = Stats.start();
+        boolean[] replaced = index.put(files);
+        Stats.INDEX_BUILD.stop(start);
+        ArrayList<String> lines = new ArrayList<String>();
+        for(int f = 0; f < files.size(); f++){
+            lines.add((replaced[f] ? "REPLACED " : "ADDED ") +
+                    files.get(f).getName());
+        }
+        return lines;
+    }
+
+    /**
+     * Removes the reference named by a request
+     * @param params Parameters of the request
+     * @return REMOVED and the name of the file
+     */
+    private List<String> remove(HashMap<String, String> params){
+        String name = params.get("name");
+        if(name == null){
+            Fatal.error("a request to /remove needs name=<file>");
+        }
+        if(!index.remove(name)){
+            Fatal.error(name + " is not a reference file");
+        }
+        ArrayList<String> lines = new ArrayList<String>();
+        lines.add("REMOVED " + name);
+        return lines;
+    }
+
+    /**
+     * Reads the files a request names with f=path or d=path, or the WAV
+     * file posted as its body, and fingerprints them
+     * @param exchange Request
+     * @param params Parameters of the request
+     * @return Files of the request
+     * @throws IOException If a temporary directory cannot be created
+     */
+    private static ArrayList<CanonicalFile> readFiles(HttpExchange exchange,
+            HashMap<String, String> params) throws IOException {
+        ArrayList<CanonicalFile> files;
+        if(params.containsKey("f") || params.containsKey("d")){
+            String mode = params.containsKey("f") ? "-f" : "-d";
+            File dir = Files.createTempDirectory("signalmatcher").toFile();
+            try{
+                files = SignalMatcher.createCanonicalFiles(mode,
+                        params.get(mode.substring(1)), dir);
+            }
+            finally {
+                deleteTree(dir);
+            }
+        } else if(exchange.getRequestMethod().equals("POST")) {
+            String name = params.containsKey("name")
+                    ? params.get("name") : DEFAULT_STREAM_NAME;
+            InputStream in = exchange.getRequestBody();
+            CanonicalFile cf = new CanonicalFile(name, in);
+            cf.fingerprintColumns();
+            in.close();
+            files = new ArrayList<CanonicalFile>();
+            files.add(cf);
+        } else {
+            Fatal.error("a request needs f=<file>, d=<directory> or " +
+                    "a WAV file posted as its body");
+            return null;
+        }
+        return files;
+    }
+
+    /**
+     * Splits the query string of a URI into its parameters
+     * @param query Raw query string, or null
+     * @return Decoded values keyed by decoded names
+     */
+    private static HashMap<String, String> parseQuery(String query){
+        HashMap<String, String> params = new HashMap<String, String>();
+        if(query == null){
+            return params;
+        }
+        for(String pair : query.split("&")){
+            int eq = pair.indexOf('=');
+            if(eq > 0){
+                params.put(
+                        URLDecoder.decode(pair.substring(0, eq),
+                                StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1),
+                                StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Deletes a directory and the files converted into it
+     * @param dir Directory
+     */
+    private static void deleteTree(File dir){
+        File[] files = dir.listFiles();
+        if(files != null){
+            for(File f : files){
+                if(f.isDirectory()){
+                    deleteTree(f);
+                } else {
+                    f.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
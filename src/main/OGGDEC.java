@@ -21,7 +21,6 @@ public class OGGDEC {
      */
     public static void convert(String inFileName,
             String outFileName, List<String> opts) {
-        ProcessBuilder oggPB = new ProcessBuilder();
         ArrayList<String> oggArgs = new ArrayList<String>();
         String oggPath = "oggdec";
         oggArgs.add(oggPath);
@@ -29,20 +28,26 @@ public class OGGDEC {
         oggArgs.add(inFileName);
         oggArgs.add("--output");
         oggArgs.add(outFileName);
-        oggPB.command(oggArgs);
 
-        Process oggP = null;
+        DecoderProcess.run(oggArgs, new File(inFileName).getName());
+    }
 
-        try{
-            oggP = oggPB.start();
-            oggP.waitFor();
-        }
-        catch (Exception e){
-            System.out.println("ERROR: "
-                    + e.getMessage());
-            System.exit(1);
-        }
+    /**
+     * Builds the command that decodes an .ogg file and writes it as
+     * a WAV file to standard output
+     * @param targetFilePath Path to the .ogg file
+     * @return oggdec command line
+     */
+    public static List<String> decodeCommand(String targetFilePath){
+        ArrayList<String> args = new ArrayList<String>();
+        args.add("oggdec");
+        args.add("--quiet");
+        args.add("--output");
+        args.add("-");
+        args.add(targetFilePath);
+        return args;
     }
+
     /**
      * Converts an OGG file to a WAV file at the canonical sample rate
      * and stores it at newFilePath
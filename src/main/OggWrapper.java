@@ -28,6 +28,10 @@ public class OggWrapper extends FileWrapper {
 
     @Override
     public CanonicalFile convert(File targetFile) {
+        if(STREAMING) {
+            return new CanonicalFile(file.getName(),
+                    OGGDEC.decodeCommand(file.getAbsolutePath()));
+        }
         File newFile = new File(targetFile, 
                 file.getName().concat(".wav"));
         OGGDEC.convertOggtoCanonical(file.getAbsolutePath(),
@@ -0,0 +1,128 @@
+package main;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes little-endian PCM, unsigned 8 bit or signed 16 bit, mono or
+ * stereo, into mono samples, writing into a buffer owned by the caller
+ * Stereo frames are averaged, and samples are on the scale of 16 bit
+ * PCM values, exactly as CanonicalFile has always read 16 bit files
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class PcmDecoder {
+    /**
+     * Number of bytes in one channel of one frame
+     */
+    private final int bytesPerChannel;
+    /**
+     * Number of channels
+     */
+    private final int channels;
+
+    /**
+     * Constructor for a PcmDecoder
+     * @param sampleSize Sample size in bits, 8 or 16
+     * @param channels Number of channels, 1 or 2
+     */
+    public PcmDecoder(int sampleSize, int channels){
+        this.bytesPerChannel = sampleSize / 8;
+        this.channels = channels;
+    }
+
+    /**
+     * Gets the number of bytes in one frame
+     * @return Bytes per frame
+     */
+    public int getFrameSize(){
+        return bytesPerChannel * channels;
+    }
+
+    /**
+     * Decodes count frames of bytes, starting at offset, into the first
+     * count values of samples
+     * @param bytes PCM data
+     * @param offset Index of the first byte of the first frame
+     * @param samples Buffer of at least count samples
+     * @param count Number of frames to decode
+     */
+    public void decode(byte[] bytes, int offset, double[] samples,
+            int count){
+        if(bytesPerChannel == 2){
+            if(channels == 1){
+                for(int i = 0, p = offset; i < count; i++, p += 2){
+                    samples[i] = (short) ((bytes[p] & 0xff) |
+                            (bytes[p + 1] << 8));
+                }
+            } else {
+                for(int i = 0, p = offset; i < count; i++, p += 4){
+                    double left = (short) ((bytes[p] & 0xff) |
+                            (bytes[p + 1] << 8));
+                    double right = (short) ((bytes[p + 2] & 0xff) |
+                            (bytes[p + 3] << 8));
+                    samples[i] = (left + right) / 2.0;
+                }
+            }
+        } else {
+            if(channels == 1){
+                for(int i = 0, p = offset; i < count; i++, p++){
+                    samples[i] = unsigned8(bytes[p]);
+                }
+            } else {
+                for(int i = 0, p = offset; i < count; i++, p += 2){
+                    samples[i] = (unsigned8(bytes[p]) +
+                            unsigned8(bytes[p + 1])) / 2.0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes count frames of a little-endian buffer, starting at
+     * index, into the first count values of samples
+     * The position of the buffer is left unchanged
+     * @param buffer Little-endian PCM data
+     * @param index Index of the first byte of the first frame
+     * @param samples Buffer of at least count samples
+     * @param count Number of frames to decode
+     */
+    public void decode(ByteBuffer buffer, int index, double[] samples,
+            int count){
+        if(bytesPerChannel == 2){
+            if(channels == 1){
+                for(int i = 0, p = index; i < count; i++, p += 2){
+                    samples[i] = buffer.getShort(p);
+                }
+            } else {
+                for(int i = 0, p = index; i < count; i++, p += 4){
+                    double left = buffer.getShort(p);
+                    double right = buffer.getShort(p + 2);
+                    samples[i] = (left + right) / 2.0;
+                }
+            }
+        } else {
+            if(channels == 1){
+                for(int i = 0, p = index; i < count; i++, p++){
+                    samples[i] = unsigned8(buffer.get(p));
+                }
+            } else {
+                for(int i = 0, p = index; i < count; i++, p += 2){
+                    samples[i] = (unsigned8(buffer.get(p)) +
+                            unsigned8(buffer.get(p + 1))) / 2.0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts an unsigned 8 bit sample, as 8 bit WAV files store them,
+     * to the scale of a signed 16 bit sample
+     * @param b Unsigned sample
+     * @return Signed sample between -32768 and 32512
+     */
+    private static double unsigned8(byte b){
+        return ((b & 0xff) - 128) << 8;
+    }
+}
@@ -0,0 +1,246 @@
+package main;
+
+/**
+ * Streams mono samples from one sample rate to another with a polyphase
+ * FIR filter, passing the result on to another SampleSink
+ * The rate changes by up/down in lowest terms, e.g. 1/4 for 44100 Hz to
+ * 11025 Hz and 147/640 for 48000 Hz to 11025 Hz; each output sample is
+ * one phase of a windowed-sinc low-pass filter applied to the most
+ * recent input samples, so nothing is ever upsampled in memory
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class Resampler implements SampleSink {
+    /**
+     * Zero crossings of the sinc kept on each side of its center
+     */
+    private static final int ZERO_CROSSINGS = 8;
+    /**
+     * Fraction of the output Nyquist frequency that is passed
+     */
+    private static final double ROLLOFF = 0.9;
+    /**
+     * Largest number of filter coefficients a Resampler allocates,
+     * enough for any common rate to 11025 Hz (45717 from 192000 Hz) but
+     * not for rates whose ratio to the output rate has no small terms
+     */
+    private static final int MAX_FILTER_LENGTH = 1 << 16;
+    /**
+     * Number of output samples buffered before they are passed on
+     */
+    private static final int BLOCK = 1024;
+    /**
+     * Interpolation factor
+     */
+    private final int up;
+    /**
+     * Decimation factor
+     */
+    private final int down;
+    /**
+     * Number of input samples each output sample is computed from
+     */
+    private final int taps;
+    /**
+     * Filter coefficients, taps per phase, phase by phase
+     */
+    private final double[] filter;
+    /**
+     * The most recent input samples, indexed by input count modulo its
+     * length
+     */
+    private final double[] history;
+    /**
+     * history.length - 1
+     */
+    private final int mask;
+    /**
+     * Sink the resampled stream is written to
+     */
+    private final SampleSink sink;
+    /**
+     * Output samples not yet passed to sink
+     */
+    private final double[] block = new double[BLOCK];
+    /**
+     * Number of samples in block
+     */
+    private int blockCount = 0;
+    /**
+     * Number of input samples received
+     */
+    private long inputCount = 0;
+    /**
+     * Number of output samples produced
+     */
+    private long outputCount = 0;
+    /**
+     * Position of the next output sample in the upsampled stream,
+     * including the filter's delay
+     */
+    private long position;
+
+    /**
+     * Constructor for a Resampler
+     * @param fromRate Sample rate of the input in Hz
+     * @param toRate Sample rate of the output in Hz
+     * @param sink Sink of the output
+     * @throws IllegalArgumentException If supports rejects the rates
+     */
+    public Resampler(int fromRate, int toRate, SampleSink sink){
+        if(!supports(fromRate, toRate)){
+            throw new IllegalArgumentException("Cannot resample " +
+                    fromRate + " Hz to " + toRate + " Hz");
+        }
+        int gcd = gcd(fromRate, toRate);
+        this.up = toRate / gcd;
+        this.down = fromRate / gcd;
+        this.sink = sink;
+        int widest = Math.max(up, down);
+        this.taps = taps(up, down);
+
+        // Windowed-sinc prototype at the upsampled rate, with a gain
+        // of up to make up for the samples interpolation would insert
+        int length = taps * up;
+        double center = (length - 1) / 2.0;
+        double cutoff = ROLLOFF * 0.5 / widest;
+        double[] prototype = new double[length];
+        for(int j = 0; j < length; j++){
+            double x = 2 * Math.PI * cutoff * (j - center);
+            double sinc = x == 0 ? 1.0 : Math.sin(x) / x;
+            // Blackman window
+            double w = 2 * Math.PI * j / (length - 1);
+            double window = 0.42 - 0.5 * Math.cos(w) +
+                    0.08 * Math.cos(2 * w);
+            prototype[j] = up * 2 * cutoff * sinc * window;
+        }
+        this.filter = new double[length];
+        for(int p = 0; p < up; p++){
+            for(int k = 0; k < taps; k++){
+                filter[p * taps + k] = prototype[p + k * up];
+            }
+        }
+        // Starting at the filter's center aligns output with input
+        this.position = (long) Math.floor(center);
+
+        int size = 1;
+        while(size < 2 * taps){
+            size *= 2;
+        }
+        this.history = new double[size];
+        this.mask = size - 1;
+    }
+
+    @Override
+    public void write(double[] samples, int count){
+        for(int s = 0; s < count; s++){
+            history[(int) (inputCount & mask)] = samples[s];
+            inputCount++;
+            while(position / up < inputCount){
+                emit(compute(position));
+                position += down;
+            }
+        }
+    }
+
+    @Override
+    public void finish(){
+        // Feeds silence through the filter's delay until every output
+        // sample covering the input has been produced
+        long total = (inputCount * up + down - 1) / down;
+        double[] zero = new double[1];
+        while(outputCount < total){
+            write(zero, 1);
+        }
+        flush();
+        sink.finish();
+    }
+
+    /**
+     * Computes the output sample at the given upsampled position
+     * Input samples before the start of the stream are silence
+     * @param at Position in the upsampled stream
+     * @return Output sample
+     */
+    private double compute(long at){
+        long newest = at / up;
+        int base = (int) (at % up) * taps;
+        double acc = 0;
+        for(int k = 0; k < taps; k++){
+            acc += filter[base + k] *
+                    history[(int) ((newest - k) & mask)];
+        }
+        return acc;
+    }
+
+    /**
+     * Buffers an output sample, passing the buffer on when it is full
+     * @param sample Output sample
+     */
+    private void emit(double sample){
+        block[blockCount++] = sample;
+        outputCount++;
+        if(blockCount == BLOCK){
+            flush();
+        }
+    }
+
+    /**
+     * Passes buffered output samples on to the sink
+     */
+    private void flush(){
+        if(blockCount > 0){
+            sink.write(block, blockCount);
+            blockCount = 0;
+        }
+    }
+
+    /**
+     * Checks if a Resampler between two rates needs no more than
+     * MAX_FILTER_LENGTH filter coefficients, which a rate read from an
+     * untrusted WAV header may otherwise push past the heap
+     * @param fromRate Sample rate of the input in Hz
+     * @param toRate Sample rate of the output in Hz
+     * @return True if both rates are positive and the filter is small
+     * enough
+     */
+    public static boolean supports(int fromRate, int toRate){
+        if(fromRate <= 0 || toRate <= 0){
+            return false;
+        }
+        int gcd = gcd(fromRate, toRate);
+        int up = toRate / gcd;
+        return (long) taps(up, fromRate / gcd) * up <= MAX_FILTER_LENGTH;
+    }
+
+    /**
+     * Computes the number of input samples each output sample is
+     * computed from
+     * @param up Interpolation factor
+     * @param down Decimation factor
+     * @return Number of taps
+     */
+    private static int taps(int up, int down){
+        // An odd number of taps puts the filter's center on a sample
+        // whenever up is odd, as it is for every rate to 11025 Hz
+        return (int) Math.ceil(2.0 * ZERO_CROSSINGS * Math.max(up, down) /
+                (up * ROLLOFF)) | 1;
+    }
+
+    /**
+     * Computes the greatest common divisor of two positive ints
+     * @param a Positive int
+     * @param b Positive int
+     * @return Greatest common divisor
+     */
+    private static int gcd(int a, int b){
+        while(b != 0){
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,24 @@
+package main;
+
+/**
+ * A consumer of a stream of mono samples, such as a resampler or the
+ * fingerprinting of chunks
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public interface SampleSink {
+    /**
+     * Consumes the next samples of the stream
+     * @param samples Buffer of samples, which may be reused by the caller
+     * once this returns
+     * @param count Number of samples in the buffer to consume
+     */
+    void write(double[] samples, int count);
+
+    /**
+     * Signals the end of the stream, flushing any buffered samples
+     */
+    void finish();
+}
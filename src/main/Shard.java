@@ -0,0 +1,113 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of n shards of a set of reference files, each served by its own
+ * worker process
+ * Reference file id i, its position in the list FilesCreator makes,
+ * belongs to shard i % n, so every shard gets every n-th file whatever
+ * order the files are in
+ * The j-th file of shard k is reference file j * n + k, so a
+ * coordinator restores the order of a single index from the shard and
+ * the position within it of each match
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class Shard {
+    /**
+     * The only shard of an unsharded set of reference files
+     */
+    public static final Shard WHOLE = new Shard(0, 1);
+    /**
+     * Index of this shard, from 0
+     */
+    private final int index;
+    /**
+     * Number of shards
+     */
+    private final int count;
+
+    /**
+     * Constructor for a Shard
+     * @param index Index of the shard, from 0
+     * @param count Number of shards
+     */
+    public Shard(int index, int count){
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Parses a shard written as index/count, e.g. 0/4
+     * @param spec Shard as written by toString
+     * @return The shard, or null if spec is not a valid shard
+     */
+    public static Shard parse(String spec){
+        int slash = spec.indexOf('/');
+        try{
+            int index = Integer.parseInt(spec.substring(0, slash));
+            int count = Integer.parseInt(spec.substring(slash + 1));
+            if(count > 0 && index >= 0 && index < count){
+                return new Shard(index, count);
+            }
+        }
+        catch (NumberFormatException e){
+            // Not a shard
+        }
+        catch (StringIndexOutOfBoundsException e){
+            // Not a shard
+        }
+        return null;
+    }
+
+    /**
+     * Picks the items of this shard out of a list of every reference file
+     * @param all Items in file id order
+     * @return Items of this shard, in the same order
+     */
+    public <T> ArrayList<T> select(List<T> all){
+        ArrayList<T> mine = new ArrayList<T>();
+        for(int id = index; id < all.size(); id += count){
+            mine.add(all.get(id));
+        }
+        return mine;
+    }
+
+    /**
+     * Gets the reference file id of a file of this shard
+     * @param position Position of the file within this shard
+     * @return File id among every reference file
+     */
+    public long fileId(int position){
+        return (long) position * count + index;
+    }
+
+    /**
+     * Gets the index of this shard
+     * @return Index, from 0
+     */
+    public int getIndex(){
+        return index;
+    }
+
+    /**
+     * Gets the number of shards
+     * @return Number of shards
+     */
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * Writes the shard as index/count
+     * @return Shard as parse reads it
+     */
+    @Override
+    public String toString(){
+        return index + "/" + count;
+    }
+}
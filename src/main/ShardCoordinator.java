@@ -0,0 +1,428 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches queries against reference files split into shards, each
+ * served by a MatchServer of its own, usually in another process
+ * The queries are fingerprinted once, here, and their fingerprints are
+ * posted to /shard of every worker at once; each worker answers with
+ * the MATCH lines of its own references, which are merged back into
+ * the order a single SignalMatcher with every reference would print
+ * them in
+ * A request to /shard is the number of queries, then the name, the
+ * number of chunks, the hashCodes and the bands of each, as written by
+ * a DataOutputStream; each line of the response is the position of the
+ * reference within the shard, the index of the query and the MATCH line
+ * matchLocally starts a worker per shard on this machine, so a sharded
+ * comparison needs nothing but loopback
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class ShardCoordinator {
+    /**
+     * Response header naming the shard a worker serves
+     */
+    static final String SHARD_HEADER = "X-Shard";
+    /**
+     * Marks the start of a request to /shard
+     */
+    private static final int MAGIC = 0x534d5351;
+    /**
+     * Number of band values stored per chunk
+     */
+    private static final int BANDS = Fingerprint.NUMBER_OF_BANDS;
+    /**
+     * Finds host:port in the line a worker prints once it is serving
+     */
+    private static final Pattern SERVING =
+            Pattern.compile("^Serving .* at http://([^/]*:\\d+)/match$");
+    /**
+     * host:port of the worker serving each shard, by shard index
+     */
+    private final List<String> workers;
+
+    /**
+     * Constructor for a ShardCoordinator
+     * @param workers host:port of the worker serving each shard, by
+     * shard index
+     */
+    public ShardCoordinator(List<String> workers){
+        this.workers = workers;
+    }
+
+    /**
+     * Starts a MatchServer for each shard of the references in a
+     * process of its own on this machine, matches the queries against
+     * them and stops them
+     * The workers get the signalmatcher.* system properties of this
+     * program, except the statistics files, and share the threads of
+     * ConversionPool.CONCURRENCY unless signalmatcher.jobs is set
+     * They are stopped even if an error ends the program
+     * @param shards Number of shards
+     * @param refMode -f | -d
+     * @param refTarget Relative or absolute path of the references
+     * @param mode -f | -d
+     * @param target Relative or absolute path of the queries
+     * @param dir Directory for converted queries
+     * @return MATCH lines, ordered as SignalMatcher prints them
+     */
+    public static List<String> matchLocally(int shards, String refMode,
+            String refTarget, String mode, String target, File dir){
+        final ArrayList<Process> processes = new ArrayList<Process>();
+        Thread stopWorkers = new Thread(){
+            @Override
+            public void run(){
+                for(Process p : processes){
+                    p.destroy();
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(stopWorkers);
+        try{
+            for(int k = 0; k < shards; k++){
+                processes.add(startWorker(new Shard(k, shards), refMode,
+                        refTarget));
+            }
+            // Fingerprinted while the workers index their references
+            ArrayList<CanonicalFile> queries =
+                    SignalMatcher.createCanonicalFiles(mode, target, dir);
+            ArrayList<String> workers = new ArrayList<String>();
+            for(int k = 0; k < shards; k++){
+                workers.add(awaitWorker(processes.get(k), k));
+            }
+            return new ShardCoordinator(workers).match(queries);
+        }
+        finally {
+            Runtime.getRuntime().removeShutdownHook(stopWorkers);
+            stopWorkers.run();
+        }
+    }
+
+    /**
+     * Starts the worker of one shard, serving on any free loopback port
+     * @param shard Shard
+     * @param refMode -f | -d
+     * @param refTarget Relative or absolute path of the references
+     * @return Worker process, whose errors go to standard error
+     */
+    private static Process startWorker(Shard shard, String refMode,
+            String refTarget){
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator +
+                "bin" + File.separator + "java");
+        for(String key : System.getProperties().stringPropertyNames()){
+            if(key.startsWith("signalmatcher.") &&
+                    !key.startsWith("signalmatcher.stats")) {
+                command.add("-D" + key + "=" + System.getProperty(key));
+            }
+        }
+        if(System.getProperty("signalmatcher.jobs") == null){
+            command.add("-Dsignalmatcher.jobs=" + Math.max(1,
+                    ConversionPool.CONCURRENCY / shard.getCount()));
+        }
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add(SignalMatcher.class.getName());
+        command.add("--serve");
+        command.add("0");
+        command.add("--shard");
+        command.add(shard.toString());
+        command.add(refMode);
+        command.add(refTarget);
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        try{
+            return builder.start();
+        }
+        catch (IOException e){
+            Fatal.error("cannot start the worker of shard " + shard +
+                    ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a worker to index its references and start serving
+     * @param worker Worker process
+     * @param k Index of its shard
+     * @return host:port the worker serves on
+     */
+    private static String awaitWorker(Process worker, int k){
+        BufferedReader out = new BufferedReader(new InputStreamReader(
+                worker.getInputStream(), StandardCharsets.UTF_8));
+        try{
+            String line = out.readLine();
+            Matcher m = line == null ? null : SERVING.matcher(line);
+            if(m != null && m.matches()){
+                return m.group(1);
+            }
+        }
+        catch (IOException e){
+            // Reported as a worker that did not start
+        }
+        Fatal.error("the worker of shard " + k + " did not start");
+        return null;
+    }
+
+    /**
+     * Matches queries against the references of every shard
+     * @param queries Files being checked
+     * @return MATCH lines, ordered as SignalMatcher prints them
+     */
+    public List<String> match(List<CanonicalFile> queries){
+        final byte[] request = writeQueries(queries);
+        ExecutorService pool = Executors.newFixedThreadPool(workers.size());
+        ArrayList<Future<List<ShardMatch>>> answers =
+                new ArrayList<Future<List<ShardMatch>>>();
+        for(int k = 0; k < workers.size(); k++){
+            final Shard shard = new Shard(k, workers.size());
+            answers.add(pool.submit(new Callable<List<ShardMatch>>(){
+                @Override
+                public List<ShardMatch> call() throws IOException {
+                    return post(shard, request);
+                }
+            }));
+        }
+        ArrayList<ShardMatch> matches = new ArrayList<ShardMatch>();
+        try{
+            for(int k = 0; k < answers.size(); k++){
+                try{
+                    matches.addAll(answers.get(k).get());
+                }
+                catch (ExecutionException e){
+                    Fatal.error("shard " + k + " at " + workers.get(k) +
+                            ": " + e.getCause().getMessage());
+                }
+            }
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            Fatal.error("interrupted");
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        // By reference file, then by query, as orderedMatches orders them
+        Collections.sort(matches, new Comparator<ShardMatch>(){
+            @Override
+            public int compare(ShardMatch a, ShardMatch b){
+                if(a.fileId != b.fileId){
+                    return Long.compare(a.fileId, b.fileId);
+                }
+                return Integer.compare(a.query, b.query);
+            }
+        });
+        ArrayList<String> lines = new ArrayList<String>();
+        for(ShardMatch m : matches){
+            lines.add(m.line);
+        }
+        return lines;
+    }
+
+    /**
+     * Posts the queries to the worker of one shard
+     * @param shard Shard
+     * @param request Queries as written by writeQueries
+     * @return Matches of the references of the shard
+     * @throws IOException If the worker cannot be reached, fails the
+     * request or serves another shard
+     */
+    private List<ShardMatch> post(Shard shard, byte[] request)
+            throws IOException {
+        URL url = new URL("http://" + workers.get(shard.getIndex()) +
+                "/shard");
+        HttpURLConnection connection = (HttpURLConnection)
+                url.openConnection();
+        try{
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setFixedLengthStreamingMode(request.length);
+            OutputStream out = connection.getOutputStream();
+            out.write(request);
+            out.close();
+            boolean ok = connection.getResponseCode() == 200;
+            InputStream body = ok ? connection.getInputStream()
+                    : connection.getErrorStream();
+            ArrayList<String> lines = readLines(body);
+            if(!ok){
+                throw new IOException(lines.isEmpty()
+                        ? connection.getResponseMessage()
+                        : lines.get(0).replaceFirst("^ERROR: ", ""));
+            }
+            String served = connection.getHeaderField(SHARD_HEADER);
+            if(!shard.toString().equals(served)){
+                throw new IOException("serves shard " + served +
+                        ", not " + shard);
+            }
+            ArrayList<ShardMatch> matches = new ArrayList<ShardMatch>();
+            for(String line : lines){
+                String[] fields = line.split(" ", 3);
+                matches.add(new ShardMatch(
+                        shard.fileId(Integer.parseInt(fields[0])),
+                        Integer.parseInt(fields[1]), fields[2]));
+            }
+            return matches;
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Reads every line of a response body
+     * @param body Response body, or null if there is none
+     * @return Lines of the body
+     * @throws IOException If the body cannot be read
+     */
+    private static ArrayList<String> readLines(InputStream body)
+            throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        if(body == null){
+            return lines;
+        }
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(body, StandardCharsets.UTF_8));
+        try{
+            String line;
+            while((line = in.readLine()) != null){
+                lines.add(line);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the fingerprints of queries as the body of a request to
+     * /shard
+     * @param queries Files being checked
+     * @return Request body
+     */
+    static byte[] writeQueries(List<CanonicalFile> queries){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            out.writeInt(MAGIC);
+            out.writeInt(queries.size());
+            for(CanonicalFile cf : queries){
+                FingerprintColumns columns = cf.fingerprintColumns();
+                int chunks = columns.size();
+                short[] hashes = columns.getHashes();
+                short[] bands = columns.getBands();
+                out.writeUTF(columns.getName());
+                out.writeInt(chunks);
+                for(int i = 0; i < chunks; i++){
+                    out.writeShort(hashes[i]);
+                }
+                for(int i = 0; i < chunks * BANDS; i++){
+                    out.writeShort(bands[i]);
+                }
+            }
+            out.close();
+        }
+        catch (IOException e){
+            // A ByteArrayOutputStream is never short of space
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the fingerprints of queries from the body of a request to
+     * /shard
+     * @param body Request body
+     * @return Files being checked, already fingerprinted
+     */
+    static ArrayList<CanonicalFile> readQueries(InputStream body){
+        ArrayList<CanonicalFile> queries = new ArrayList<CanonicalFile>();
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(body));
+        try{
+            if(in.readInt() != MAGIC){
+                Fatal.error("a request to /shard needs the fingerprints " +
+                        "of its queries posted as its body");
+            }
+            int count = in.readInt();
+            for(int q = 0; q < count; q++){
+                String name = in.readUTF();
+                int chunks = in.readInt();
+                if(chunks < 0){
+                    throw new IOException("negative length");
+                }
+                short[] hashes = new short[chunks];
+                short[] bands = new short[chunks * BANDS];
+                for(int i = 0; i < hashes.length; i++){
+                    hashes[i] = in.readShort();
+                }
+                for(int i = 0; i < bands.length; i++){
+                    bands[i] = in.readShort();
+                }
+                queries.add(new CanonicalFile(
+                        new FingerprintColumns(name, bands, hashes)));
+            }
+        }
+        catch (IOException e){
+            Fatal.error("malformed request to /shard: " + e);
+        }
+        return queries;
+    }
+
+    /**
+     * A MATCH line of one shard and where it goes among the others
+     */
+    private static class ShardMatch {
+        /**
+         * Id of the reference file among every reference file
+         */
+        final long fileId;
+        /**
+         * Index of the query
+         */
+        final int query;
+        /**
+         * MATCH line
+         */
+        final String line;
+
+        /**
+         * Constructor for a ShardMatch
+         * @param fileId Id of the reference file among every reference
+         * file
+         * @param query Index of the query
+         * @param line MATCH line
+         */
+        ShardMatch(long fileId, int query, String line){
+            this.fileId = fileId;
+            this.query = query;
+            this.line = line;
+        }
+    }
+}
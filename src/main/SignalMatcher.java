@@ -1,10 +1,15 @@
 package main;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 /**
  * Checks songs for plagiarism and prints matches at relevant times
  * @author Ariel Winton
@@ -17,22 +22,80 @@ public class SignalMatcher {
      * The maximum acceptable Euclidean distance between 
      * two fingerprints to consider them identical
      */
-    private static int EUCLIDEAN_DISTANCE_MAX = 600;
+    public static final int EUCLIDEAN_DISTANCE_MAX = 600;
+    /**
+     * Should fingerprints be compared by their packed fingerprints
+     * instead of by Euclidean distance? Set by
+     * -Dsignalmatcher.fingerprints=packed
+     */
+    private static final boolean PACKED = 
+            "packed".equals(System.getProperty("signalmatcher.fingerprints"));
+    /**
+     * The maximum packed distance between two fingerprints to consider
+     * them identical, calibrated with bench.PackedDistanceCalibration:
+     * it rejects about 8% of the pairs within EUCLIDEAN_DISTANCE_MAX and
+     * accepts under 0.5% of the rest, which keeps every fragment the
+     * Euclidean distance finds on the reference corpus
+     */
+    private static final int PACKED_DISTANCE_MAX = 15;
     /**
      * The maximum acceptable difference between two fingerprints'
      * hashCodes to consider them similar
      */
-    private static final int ACCEPTABLE_HASH_RANGE = 650;
+    public static final int ACCEPTABLE_HASH_RANGE = 650;
     /**
      * The minimum size of a copyright protected fragment of song
      * in fingerprints
      */
-    private static final int FRAGMENT_SIZE = 55;
+    public static final int FRAGMENT_SIZE = 55;
     /**
      * The minimum percentage of matches between fingerprints 
      * to say two fragments match
      */
     private static final double ACCEPTABLE_HIT_RATE = 0.75;
+    /**
+     * The maximum number of query chunks searched by one thread
+     */
+    private static final int SHARD_CHUNKS = 4096;
+    /**
+     * Should matches be found by offset voting instead of by checking
+     * every candidate? Set by -Dsignalmatcher.matcher=vote
+     */
+    private static final boolean VOTING = 
+            "vote".equals(System.getProperty("signalmatcher.matcher"));
+    /**
+     * The minimum number of votes an offset needs within FRAGMENT_SIZE
+     * query chunks before it is checked with chainCompare
+     * Only about a quarter of matching chunks have hashCodes within
+     * ACCEPTABLE_HASH_RANGE of each other, so a fragment that passes
+     * chainCompare usually carries ten or more votes
+     */
+    private static final int MIN_VOTES = 3;
+    /**
+     * Number of bits given to the query chunk, and to the offset, of a
+     * packed vote
+     */
+    private static final int VOTE_BITS = 21;
+    /**
+     * Mask of the query chunk of a packed vote
+     */
+    private static final long VOTE_MASK = (1L << VOTE_BITS) - 1;
+    /**
+     * Added to offsets so that packed offsets are never negative
+     */
+    private static final int OFFSET_BIAS = 1 << (VOTE_BITS - 1);
+    /**
+     * Number of indexed files whose ids fit in a packed vote without
+     * reaching its sign bit
+     */
+    private static final int MAX_VOTE_FILES = 1 << (63 - 2 * VOTE_BITS);
+    /**
+     * Threads query shards are searched on, shared by every call to
+     * matchAll
+     */
+    private static final ExecutorService MATCHERS =
+            Executors.newFixedThreadPool(ConversionPool.CONCURRENCY,
+                    ConversionPool.daemonThreads("matcher"));
     /**
      * A temporary directory 
      */
@@ -41,164 +104,629 @@ public class SignalMatcher {
      * A temporary directory
      */
     private static File temp2 = new File("/tmp/SignalMatcher/D2");
+    /**
+     * First argument that runs a MatchServer instead of one comparison
+     */
+    private static final String SERVE_OPTION = "--serve";
+    /**
+     * First argument that writes an IndexFile of reference files
+     * instead of running a comparison
+     */
+    private static final String INDEX_OPTION = "--index";
+    /**
+     * Mode of reference files read from an IndexFile
+     */
+    private static final String INDEX_MODE = "-i";
+    /**
+     * Argument after the port of SERVE_OPTION that serves only one
+     * Shard of the reference files
+     */
+    private static final String SHARD_OPTION = "--shard";
+    /**
+     * First argument that matches queries against the MatchServers of
+     * every shard instead of against an index of its own
+     */
+    private static final String COORDINATE_OPTION = "--coordinate";
+    /**
+     * First argument that runs a comparison across a number of local
+     * worker processes, one per shard
+     */
+    private static final String SHARDS_OPTION = "--shards";
 
     /**
      * Runs program
      * @param args Files to be compared
      */
     public static void main(String[] args){
+        if(args.length > 0 && args[0].equals(SERVE_OPTION)){
+            serve(args);
+            return;
+        }
+        if(args.length > 0 && args[0].equals(INDEX_OPTION)){
+            writeIndex(args);
+            return;
+        }
+        if(args.length > 0 && (args[0].equals(COORDINATE_OPTION) ||
+                args[0].equals(SHARDS_OPTION))) {
+            coordinate(args);
+            return;
+        }
         // Evaluates command line syntax
         checkArgs(args);
         // Creates temporary directories if none were previously created
         temp1.mkdirs();
         temp2.mkdirs();
+        // Index of the fingerprints of every reference file, keyed by
+        // their hashCodes
+        FingerprintIndex index = createIndex(args[0], args[1], temp1);
         // Lists of files in canonical form
-        ArrayList<CanonicalFile> f1 = 
-                createCanonicalFiles(args[0], args[1], temp1);
         ArrayList<CanonicalFile> f2 = createCanonicalFiles(args[2], 
                 args[3], temp2);
 
-        // Database of fingerprints and their hashCodes for the current
-        // canonical file cf
-        HashMap<Integer,Fingerprint> h1 = 
-                new HashMap<Integer,Fingerprint>();
-        // Runs through every file in directory f1 and compares the
-        // fingerprints in each cf in f1 to the fingerprints of all
-        // files in directory f2
-        for(CanonicalFile cf : f1) {
-            Fingerprint[] fingerprints = cf.fingerprintFile();
-            for(int i = 0; i < fingerprints.length; i++){
-                h1.put(
-                        fingerprints[i].hashCode(), 
-                        fingerprints[i]);
-            }
-            for(CanonicalFile cf2: f2){
-                if(cf2.fingerprintFile()==null)
-                    continue;
-                Fingerprint[] fingerprints2 = cf2.fingerprintFile();
-                findMatches(h1, fingerprints2);
+        // Compares the fingerprints of every file in directory f2 to
+        // the fingerprints of all files in directory f1
+        long start = Stats.start();
+        String[][] matches = matchAll(index, f2);
+        Stats.MATCHING.stop(start);
+        Stats.FILE_PAIRS.add((long) index.getFileCount() * f2.size());
+        for(String line : orderedMatches(index, matches)){
+            System.out.println(line);
+            Stats.FILE_PAIRS_MATCHED.add(1);
+        }
+        temp1.delete();
+        temp2.delete();
+        System.exit(0);
+    }
 
+    /**
+     * Indexes the reference files, or opens their IndexFile
+     * @param mode -f | -d | -i
+     * @param target Relative or absolute path of the references, or of
+     * their IndexFile
+     * @param dir Directory for converted files
+     * @return Index of the reference files
+     */
+    static FingerprintIndex createIndex(String mode, String target,
+            File dir){
+        return createIndex(mode, target, dir, Shard.WHOLE);
+    }
+
+    /**
+     * Indexes the reference files of one shard, or opens the IndexFile
+     * of every reference file
+     * @param mode -f | -d | -i
+     * @param target Relative or absolute path of the references, or of
+     * their IndexFile
+     * @param dir Directory for converted files
+     * @param shard Shard of the references to index; an IndexFile is
+     * only opened whole
+     * @return Index of the reference files of the shard
+     */
+    static FingerprintIndex createIndex(String mode, String target,
+            File dir, Shard shard){
+        FingerprintIndex index;
+        if(mode.equals(INDEX_MODE)){
+            if(shard.getCount() > 1){
+                Fatal.error("an index file cannot be sharded; " +
+                        "give -f or -d instead");
+            }
+            try{
+                index = IndexFile.open(new File(target));
             }
-            h1.clear();
+            catch (IOException e){
+                Fatal.error(e.getMessage());
+                return null;
+            }
+        } else {
+            ArrayList<CanonicalFile> refs =
+                    createCanonicalFiles(mode, target, dir, shard);
+            long start = Stats.start();
+            index = FingerprintIndex.build(refs);
+            Stats.INDEX_BUILD.stop(start);
+        }
+        Stats.INDEX_POSTINGS.add(index.size());
+        return index;
+    }
 
+    /**
+     * Writes an IndexFile of the reference files given after
+     * INDEX_OPTION and the path of the file
+     * @param args INDEX_OPTION, path of the IndexFile, -f | -d, path of
+     * the references
+     */
+    private static void writeIndex(String[] args){
+        if(!(args.length == 4 &&
+                (args[2].equals("-f") || args[2].equals("-d")))) {
+            System.err.println("ERROR: Incorrect command line arguments");
+            System.exit(1);
         }
+        temp1.mkdirs();
+        IndexFile.write(args[2], args[3], new File(args[1]), temp1);
         temp1.delete();
-        temp2.delete();
         System.exit(0);
     }
 
     /**
-     * Detects whether or not matches of fragments exist
-     * @param map HashMap of fingerprints and their hashcodes
-     * @param fingerprints Array of fingerprints
+     * Runs a MatchServer for the reference files given after
+     * SERVE_OPTION and its port, or for one shard of them given after
+     * SHARD_OPTION
+     * @param args SERVE_OPTION, port, optionally SHARD_OPTION and
+     * index/count, -f | -d | -i, path of the references
      */
-    private static void 
-    findMatches(HashMap<Integer, Fingerprint> map,
-            Fingerprint[] fingerprints){
-        ArrayList<String> matches = new ArrayList<String>();
+    private static void serve(String[] args){
+        int port = -1;
+        Shard shard = Shard.WHOLE;
+        int mode = 2;
+        if(args.length == 6 && args[2].equals(SHARD_OPTION)){
+            shard = Shard.parse(args[3]);
+            mode = 4;
+        }
+        if(shard != null && args.length == mode + 2 &&
+                (args[mode].equals("-f") || args[mode].equals("-d") ||
+                        args[mode].equals(INDEX_MODE))) {
+            try{
+                port = Integer.parseInt(args[1]);
+            }
+            catch (NumberFormatException e){
+                port = -1;
+            }
+        }
+        if(port < 0 || port > 65535) {
+            System.err.println("ERROR: Incorrect command line arguments");
+            System.exit(1);
+        }
+        MatchServer.serve(port, args[mode], args[mode + 1], shard);
+    }
 
-        for(int i = 0; i < fingerprints.length; i++){
-            ArrayList<Fingerprint> validMatches = 
-                    scanMap(map, fingerprints[i].hashCode());
+    /**
+     * Matches the query files given after COORDINATE_OPTION and the
+     * workers of every shard, or after SHARDS_OPTION, the number of
+     * shards and the reference files, and prints the MATCH lines a
+     * single comparison would print
+     * @param args COORDINATE_OPTION, host:port of each shard separated
+     * by commas, -f | -d, path of the queries; or SHARDS_OPTION, number
+     * of shards, -f | -d, path of the references, -f | -d, path of the
+     * queries
+     */
+    private static void coordinate(String[] args){
+        boolean local = args[0].equals(SHARDS_OPTION);
+        int shards = 0;
+        if(args.length == (local ? 6 : 4) &&
+                (args[2].equals("-f") || args[2].equals("-d")) &&
+                (!local || args[4].equals("-f") || args[4].equals("-d"))) {
+            try{
+                shards = local ? Integer.parseInt(args[1])
+                        : args[1].split(",").length;
+            }
+            catch (NumberFormatException e){
+                shards = 0;
+            }
+        }
+        if(shards < 1) {
+            System.err.println("ERROR: Incorrect command line arguments");
+            System.exit(1);
+        }
+        String mode = args[args.length - 2];
+        String target = args[args.length - 1];
+        temp2.mkdirs();
+        List<String> lines;
+        if(local){
+            lines = ShardCoordinator.matchLocally(shards, args[2], args[3],
+                    mode, target, temp2);
+        } else {
+            ShardCoordinator coordinator = new ShardCoordinator(
+                    Arrays.asList(args[1].split(",")));
+            lines = coordinator.match(
+                    createCanonicalFiles(mode, target, temp2));
+        }
+        for(String line : lines){
+            System.out.println(line);
+            Stats.FILE_PAIRS_MATCHED.add(1);
+        }
+        temp2.delete();
+        System.exit(0);
+    }
 
-            if(validMatches == null) {
-                continue;
+    /**
+     * Orders MATCH lines by file in the index, then by query file,
+     * exactly as a single thread comparing one file after another
+     * would print them
+     * @param index Index of fingerprints and their hashcodes
+     * @param matches MATCH line of each query for each indexed file id,
+     * or null, as returned by matchAll
+     * @return MATCH lines in order
+     */
+    static List<String> orderedMatches(FingerprintIndex index, 
+            String[][] matches){
+        ArrayList<String> lines = new ArrayList<String>();
+        for(int id = 0; id < index.getFileCount(); id++){
+            for(String[] queryMatches : matches){
+                if(queryMatches[id] != null){
+                    lines.add(queryMatches[id]);
+                }
             }
+        }
+        return lines;
+    }
 
-            for(Fingerprint match : validMatches){
+    /**
+     * Compares every query file to the indexed files on the
+     * ConversionPool.CONCURRENCY threads of MATCHERS
+     * Each query is split into shards of at most SHARD_CHUNKS chunks
+     * that are searched independently against the read-only index;
+     * the earliest shard of a query to match an indexed file gives the
+     * same match a search of the whole query would have found, so
+     * shards of a query share their ConfirmedMatches to skip files an
+     * earlier shard has matched
+     * @param index Index of fingerprints and their hashcodes
+     * @param queries Files being checked
+     * @return MATCH line of each query for each indexed file id, or null
+     * where they do not match
+     */
+    public static String[][] matchAll(final FingerprintIndex index,
+            List<CanonicalFile> queries){
+        ArrayList<Callable<String[]>> shards = 
+                new ArrayList<Callable<String[]>>();
+        // Index in shards of the first shard of each query
+        int[] firstShard = new int[queries.size() + 1];
+        for(int q = 0; q < queries.size(); q++){
+            firstShard[q] = shards.size();
+            final FingerprintColumns query = 
+                    queries.get(q).fingerprintColumns();
+            final ConfirmedMatches confirmed = 
+                    new ConfirmedMatches(index.getFileCount());
+            for(int from = 0; from < query.size(); from += SHARD_CHUNKS){
+                final int start = from;
+                final int end = Math.min(query.size(), from + SHARD_CHUNKS);
+                final int shard = from / SHARD_CHUNKS;
+                shards.add(new Callable<String[]>(){
+                    @Override
+                    public String[] call(){
+                        return VOTING 
+                                ? findMatchesByVote(index, query, start, 
+                                        end, confirmed, shard)
+                                : findMatches(index, query, start, end, 
+                                        confirmed, shard);
+                    }
+                });
+            }
+        }
+        firstShard[queries.size()] = shards.size();
 
-                if(!hashAcceptable(match.hashCode(),
-                        fingerprints[i].hashCode())) {
-                    continue;
+        List<Future<String[]>> results = null;
+        try{
+            results = MATCHERS.invokeAll(shards);
+            String[][] matches = new String[queries.size()][];
+            for(int q = 0; q < queries.size(); q++){
+                matches[q] = new String[index.getFileCount()];
+                for(int s = firstShard[q + 1] - 1; s >= firstShard[q]; s--){
+                    String[] shardMatches = results.get(s).get();
+                    for(int id = 0; id < shardMatches.length; id++){
+                        if(shardMatches[id] != null){
+                            matches[q][id] = shardMatches[id];
+                        }
+                    }
                 }
+            }
+            return matches;
+        }
+        catch (ExecutionException e){
+            Fatal.error(String.valueOf(e.getCause()));
+            return null;
+        }
+        catch (InterruptedException e){
+            Fatal.error(e.toString());
+            return null;
+        }
+    }
 
-                if(compareFingerprints(match, fingerprints[i])) {
+    /**
+     * Detects whether or not matches of fragments exist between the
+     * given chunks of a query and the indexed files
+     * At most one match is reported per pair of files: the one at the
+     * first query chunk that matches
+     * @param index Index of fingerprints and their hashcodes
+     * @param query Fingerprints of the file being checked
+     * @param from First query chunk to check
+     * @param to Query chunk after the last to check
+     * @param confirmed Files matched by the shards of the query
+     * @param shard Shard of the query being checked
+     * @return MATCH line for each indexed file id, or null where the
+     * file does not match or an earlier shard matched it
+     */
+    private static String[] 
+    findMatches(FingerprintIndex index,
+            FingerprintColumns query, int from, int to,
+            ConfirmedMatches confirmed, int shard){
+        String[] output = new String[index.getFileCount()];
+        long candidates = 0;
+        long distances = 0;
+        MatchPassEvent event = new MatchPassEvent();
+        event.begin();
+        // chainCompare calls per indexed file, kept only while recording
+        long[] verifications = 
+                event.isEnabled() ? new long[output.length] : null;
 
-                }
+        for(int i = from; i < to; i++){
+            int hash = query.hashOf(i);
+            // Each file's postings are all in one layer, so searching
+            // the layers one after another finds the same match for it
+            for(FingerprintIndex layer = index; layer != null;
+                    layer = layer.getAdded()){
+                // Every posting in this slice is within
+                // ACCEPTABLE_HASH_RANGE of hash
+                int start = layer.rangeStart(hash, ACCEPTABLE_HASH_RANGE);
+                int end = layer.rangeEnd(hash, ACCEPTABLE_HASH_RANGE);
+                candidates += end - start;
 
-                else {
-                    continue;
-                }
+                for(int posting = start; posting < end; posting++){
+                    int id = layer.fileOf(posting);
+                    if(output[id] != null || 
+                            confirmed.isCovered(id, shard)) {
+                        continue;
+                    }
+                    FingerprintColumns match = index.getFile(id);
+                    if(match == null) {
+                        // Removed, and not yet compacted away
+                        continue;
+                    }
+                    int chunk = layer.chunkOf(posting);
 
-                if(!matches.contains(match.getName() + 
-                        fingerprints[i].getName()) 
-                        && chainCompare(match,fingerprints[i])) {
-                    matches.add(match.getName() + 
-                            fingerprints[i].getName());
-                    System.out.println("MATCH " +
-                            match.getName() + " " +  
-                            fingerprints[i].getName() 
-                            + " " +
-                            Fingerprint.findTimeInFile(match) 
-                            + " " +
-                            Fingerprint.findTimeInFile(
-                                    fingerprints[i]));
+                    distances++;
+                    if(!compareFingerprints(match, chunk, query, i)) {
+                        continue;
+                    }
+                    if(verifications != null) {
+                        verifications[id]++;
+                    }
+                    if(chainCompare(match, chunk, query, i)) {
+                        output[id] = matchLine(match, chunk, query, i);
+                        confirmed.confirm(id, shard);
+                    }
                 }
             }
         }    
+        Stats.CANDIDATES.add(candidates);
+        Stats.DISTANCES.add(distances);
+        commitPass(event, index, query, from, to, candidates, 
+                verifications, output);
+        return output;
     }
 
     /**
-     * Determines whether or not hashCode of h1 is within
-     * ACCEPTABLE_HASH_RANGE of hashCode of h2
-     * @param h1 hashCode of a fingerprint
-     * @param h2 hashCode of a fingerprint
-     * @return True if the hashCodes are within an acceptable
-     * range; otherwise, false
+     * Approximates findMatches by voting instead of checking every
+     * candidate with chainCompare
+     * Every candidate close enough to its query chunk votes for its file
+     * and its offset, the query chunk minus its chunk; a fragment is one
+     * offset of one file voted for by chunk after chunk, so only
+     * candidates whose offset has at least MIN_VOTES votes within
+     * FRAGMENT_SIZE query chunks are checked with chainCompare
+     * The match of a file is the one findMatches finds whenever that
+     * fragment has MIN_VOTES votes; a fragment chainCompare would accept
+     * with fewer is skipped, so the file is reported at a later fragment
+     * or not at all
+     * Votes pack the file id, offset and query chunk into one long, so
+     * queries or indexed files of more than OFFSET_BIAS chunks, or more
+     * than MAX_VOTE_FILES indexed files, are searched by findMatches
+     * @param index Index of fingerprints and their hashcodes
+     * @param query Fingerprints of the file being checked
+     * @param from First query chunk to check
+     * @param to Query chunk after the last to check
+     * @param confirmed Files matched by the shards of the query
+     * @param shard Shard of the query being checked
+     * @return MATCH line for each indexed file id, or null where the
+     * file does not match or an earlier shard matched it
      */
-    private static boolean hashAcceptable(int h1, int h2){
-        return Math.abs(h1 - h2) <= ACCEPTABLE_HASH_RANGE;
+    private static String[]
+    findMatchesByVote(FingerprintIndex index,
+            FingerprintColumns query, int from, int to,
+            ConfirmedMatches confirmed, int shard){
+        if(query.size() > OFFSET_BIAS || 
+                index.getFileCount() > MAX_VOTE_FILES) {
+            return findMatches(index, query, from, to, confirmed, shard);
+        }
+        // Fragments starting before to also collect votes after it
+        int last = Math.min(query.size(), to + FRAGMENT_SIZE - 1);
+        long[] votes = new long[1024];
+        int count = 0;
+        long candidates = 0;
+        long distances = 0;
+        MatchPassEvent event = new MatchPassEvent();
+        event.begin();
+        long[] verifications = event.isEnabled() 
+                ? new long[index.getFileCount()] : null;
+        for(int i = from; i < last; i++){
+            int hash = query.hashOf(i);
+            for(FingerprintIndex layer = index; layer != null;
+                    layer = layer.getAdded()){
+                int start = layer.rangeStart(hash, ACCEPTABLE_HASH_RANGE);
+                int end = layer.rangeEnd(hash, ACCEPTABLE_HASH_RANGE);
+                candidates += end - start;
+                for(int posting = start; posting < end; posting++){
+                    int id = layer.fileOf(posting);
+                    FingerprintColumns match = index.getFile(id);
+                    if(match == null || confirmed.isCovered(id, shard)) {
+                        continue;
+                    }
+                    int chunk = layer.chunkOf(posting);
+                    if(chunk >= OFFSET_BIAS) {
+                        // Its offset does not fit in a vote
+                        return findMatches(index, query, from, to, 
+                                confirmed, shard);
+                    }
+                    distances++;
+                    if(compareFingerprints(match, chunk, query, i)) {
+                        if(count == votes.length){
+                            votes = Arrays.copyOf(votes, count * 2);
+                        }
+                        votes[count++] = ((long) id << (2 * VOTE_BITS)) |
+                                ((long) (i - chunk + OFFSET_BIAS)
+                                        << VOTE_BITS) | i;
+                    }
+                }
+            }
+        }
+        Stats.CANDIDATES.add(candidates);
+        Stats.DISTANCES.add(distances);
+        // Puts the votes for each file and offset together, in query
+        // chunk order
+        Arrays.sort(votes, 0, count);
+
+        // First query chunk, and its chunk, of the match found for each
+        // file, as findMatches would find it
+        int[] bestQueryChunk = new int[index.getFileCount()];
+        int[] bestChunk = new int[index.getFileCount()];
+        Arrays.fill(bestQueryChunk, to);
+        int group = 0;
+        while(group < count){
+            long key = votes[group] >>> VOTE_BITS;
+            int groupEnd = group;
+            while(groupEnd < count && votes[groupEnd] >>> VOTE_BITS == key){
+                groupEnd++;
+            }
+            int id = (int) (key >>> VOTE_BITS);
+            if(confirmed.isCovered(id, shard)) {
+                group = groupEnd;
+                continue;
+            }
+            int offset = (int) (key & VOTE_MASK) - OFFSET_BIAS;
+            FingerprintColumns match = index.getFile(id);
+            // First vote too late to be in the fragment of vote v
+            int window = group;
+            for(int v = group; v < groupEnd; v++){
+                int i = (int) (votes[v] & VOTE_MASK);
+                if(i >= to || i > bestQueryChunk[id]) {
+                    break;
+                }
+                while(window < groupEnd && 
+                        (votes[window] & VOTE_MASK) < i + FRAGMENT_SIZE){
+                    window++;
+                }
+                int chunk = i - offset;
+                if(window - v < MIN_VOTES) {
+                    continue;
+                }
+                if(verifications != null) {
+                    verifications[id]++;
+                }
+                if(chainCompare(match, chunk, query, i)) {
+                    if(i < bestQueryChunk[id] || 
+                            comesFirst(match, chunk, bestChunk[id])) {
+                        bestQueryChunk[id] = i;
+                        bestChunk[id] = chunk;
+                    }
+                    break;
+                }
+            }
+            group = groupEnd;
+        }
+
+        String[] output = new String[index.getFileCount()];
+        for(int id = 0; id < output.length; id++){
+            if(bestQueryChunk[id] < to) {
+                output[id] = matchLine(index.getFile(id), bestChunk[id],
+                        query, bestQueryChunk[id]);
+                confirmed.confirm(id, shard);
+            }
+        }
+        commitPass(event, index, query, from, to, candidates, 
+                verifications, output);
+        return output;
     }
 
     /**
-     * Checks which fingerprints in map exist within an acceptable
-     * hash range of hash
-     * If they exist, they are returned in an ArrayList
-     * Else, null is returned
-     * @param map HashMap of fingerprints and their hashCodes
-     * @param hash hashCode
-     * @return ArrayList of fingerprints or null
-     */
-    private static ArrayList<Fingerprint> scanMap(HashMap<Integer, 
-            Fingerprint> map, int hash){
-        ArrayList<Fingerprint> matches = new ArrayList<Fingerprint>();
-        Fingerprint match;
-        for(int i = Math.max(0, hash - ACCEPTABLE_HASH_RANGE); 
-                i <= hash + ACCEPTABLE_HASH_RANGE; i++){
-            if(map.containsKey(i)){
-                match = map.get(i);
-                if(hashAcceptable(match.hashCode(), hash))
-                    matches.add(match);
-                else continue;
+     * Fills in and commits the flight recorder event of a pass of
+     * findMatches or findMatchesByVote, if it is being recorded
+     * @param event Event begun at the start of the pass
+     * @param index Index of fingerprints and their hashcodes
+     * @param query Fingerprints of the file being checked
+     * @param from First query chunk checked
+     * @param to Query chunk after the last checked
+     * @param candidates Indexed fingerprints in the hash windows
+     * @param verifications chainCompare calls per indexed file id, or
+     * null if the event was not enabled when the pass began
+     * @param output MATCH line for each indexed file id, or null
+     */
+    private static void commitPass(MatchPassEvent event, 
+            FingerprintIndex index, FingerprintColumns query, int from, 
+            int to, long candidates, long[] verifications, 
+            String[] output){
+        if(verifications == null || !event.shouldCommit()) {
+            return;
+        }
+        event.query = query.getName();
+        event.from = from;
+        event.to = to;
+        event.candidates = candidates;
+        int costliest = -1;
+        for(int id = 0; id < output.length; id++){
+            event.verifications += verifications[id];
+            if(output[id] != null) {
+                event.matches++;
+            }
+            if(verifications[id] > 0 && (costliest < 0 || 
+                    verifications[id] > verifications[costliest])) {
+                costliest = id;
             }
-            else continue;
         }
-        if(matches.size() == 0){
-            return null;
-        } else {
-            return matches;
+        if(costliest >= 0) {
+            event.costliestFile = index.getFile(costliest).getName();
+            event.costliestVerifications = verifications[costliest];
         }
+        event.commit();
+    }
+
+    /**
+     * Checks whether findMatches would try chunk c1 of f1 before chunk
+     * c2 for the same query chunk, as the index lists chunks by
+     * hashCode and then in order
+     * @param f1 Fingerprints of a file
+     * @param c1 Chunk index in f1
+     * @param c2 Chunk index in f1
+     * @return True if chunk c1 is tried first; otherwise, false
+     */
+    private static boolean comesFirst(FingerprintColumns f1, int c1, 
+            int c2){
+        int h1 = f1.hashOf(c1);
+        int h2 = f1.hashOf(c2);
+        return h1 < h2 || (h1 == h2 && c1 < c2);
+    }
+
+    /**
+     * Formats a match between chunk c1 of f1 and chunk c2 of f2
+     * @param f1 Fingerprints of a file
+     * @param c1 Chunk index in f1
+     * @param f2 Fingerprints of a file
+     * @param c2 Chunk index in f2
+     * @return MATCH line
+     */
+    private static String matchLine(FingerprintColumns f1, int c1,
+            FingerprintColumns f2, int c2){
+        return "MATCH " + f1.getName() + " " + f2.getName() + " " +
+                Fingerprint.findTimeInFile(c1) + " " +
+                Fingerprint.findTimeInFile(c2);
     }
 
     /**
-     * Compares two fragments starting at f1 and f2
-     * @param f1 Fingerprint
-     * @param f2 Fingerprint
+     * Compares two fragments starting at chunk c1 of f1 and
+     * chunk c2 of f2
+     * @param f1 Fingerprints of a file
+     * @param c1 Chunk index in f1
+     * @param f2 Fingerprints of a file
+     * @param c2 Chunk index in f2
      * @return True if the fragments match; otherwise, false
      */
-    private static boolean chainCompare(Fingerprint f1, 
-            Fingerprint f2){
-        Fingerprint currentF1 = f1;
-        Fingerprint currentF2 = f2;
+    public static boolean chainCompare(FingerprintColumns f1, int c1,
+            FingerprintColumns f2, int c2){
+        if(c1 + FRAGMENT_SIZE > f1.size() ||
+                c2 + FRAGMENT_SIZE > f2.size()) {
+            return false;
+        }
+        Stats.CHAIN_COMPARISONS.add(1);
+        Stats.DISTANCES.add(FRAGMENT_SIZE - 1);
         int hits = 0;
         for(int i = 1; i < FRAGMENT_SIZE; i++){
-            currentF1 = currentF1.getNext();
-            currentF2 = currentF2.getNext();	
-            if(currentF1 == null || currentF2 == null) {
-                return false;
-            }
-
-            if(compareFingerprints(currentF1, currentF2)) {
+            if(compareFingerprints(f1, c1 + i, f2, c2 + i)) {
                 hits++;
             } 
         }
@@ -207,36 +735,104 @@ public class SignalMatcher {
 
 
     /**
-     * Uses Euclidean distance function to evaluate whether or
-     * not two fingerprints match
-     * @param f1 Fingerprint
-     * @param f2 Fingerprint
+     * Uses Euclidean distance function, or the packed distance when
+     * PACKED is set, to evaluate whether or not two fingerprints match
+     * @param f1 Fingerprints of a file
+     * @param c1 Chunk index in f1
+     * @param f2 Fingerprints of a file
+     * @param c2 Chunk index in f2
      * @return True if the fingerprints match; otherwise, false
      */
-    private static boolean compareFingerprints(Fingerprint f1,
-            Fingerprint f2){
-        return 
-                EuclideanValue.getEuclideanValue(f1.getBands(), 
-                        f2.getBands())
-                        <= EUCLIDEAN_DISTANCE_MAX;
+    private static boolean compareFingerprints(FingerprintColumns f1,
+            int c1, FingerprintColumns f2, int c2){
+        if(PACKED) {
+            return f1.packedDistance(c1, f2, c2) <= PACKED_DISTANCE_MAX;
+        }
+        return f1.isWithin(c1, f2, c2, EUCLIDEAN_DISTANCE_MAX);
     }
 
     /**
      * Creates a list of files in canonical format and places
      * them in dir
+     * Files of a directory (-d) are taken from its FingerprintCatalog
+     * when they have not changed since they were last fingerprinted
+     * The rest are converted in parallel by a ConversionPool
      * @param mode -f | -d
      * @param target Relative or absolute path
      * @param dir Directory
      * @return ArrayList of canonical files created
      */
-    private static ArrayList<CanonicalFile> createCanonicalFiles
+    static ArrayList<CanonicalFile> createCanonicalFiles
     (String mode, String target, File dir){
-        ArrayList<FileWrapper> list = 
+        return createCanonicalFiles(mode, target, dir, Shard.WHOLE);
+    }
+
+    /**
+     * Creates a list of the files of one shard in canonical format and
+     * places them in dir
+     * The catalog of a directory is pruned only of files that have left
+     * it, and saving it merges in the entries the workers of other
+     * shards saved meanwhile, so each file is fingerprinted only once
+     * @param mode -f | -d
+     * @param target Relative or absolute path
+     * @param dir Directory
+     * @param shard Shard of the files to create
+     * @return ArrayList of canonical files created, in file id order
+     */
+    static ArrayList<CanonicalFile> createCanonicalFiles
+    (String mode, String target, File dir, Shard shard){
+        long start = Stats.start();
+        ArrayList<FileWrapper> all = 
                 FilesCreator.makeMusicFileList(mode, target);
+        ArrayList<FileWrapper> list = shard.select(all);
+        Stats.HEADER_CHECKS.stop(start);
         ArrayList<CanonicalFile> canonicalList = 
                 new ArrayList<CanonicalFile>();
+        FingerprintCatalog catalog = null;
+        ArrayList<File> sources = new ArrayList<File>();
+        if(mode.equals("-d")){
+            catalog = FingerprintCatalog.forDirectory(new File(target));
+        }
+        // Files the catalog has no fingerprints for, and their places
+        // in canonicalList
+        ArrayList<FileWrapper> missing = new ArrayList<FileWrapper>();
+        ArrayList<Integer> places = new ArrayList<Integer>();
+        for(FileWrapper fw: all){
+            sources.add(fw.file);
+        }
         for(FileWrapper fw: list){
-            canonicalList.add(fw.convert(dir));
+            CanonicalFile cf = null;
+            if(catalog != null){
+                cf = catalog.lookup(fw.file);
+            }
+            if(cf == null){
+                missing.add(fw);
+                places.add(canonicalList.size());
+            }
+            canonicalList.add(cf);
+        }
+        Stats.FILES_FROM_CATALOG.add(list.size() - missing.size());
+        // Stamped before conversion, so a file edited meanwhile is
+        // fingerprinted again next time
+        ArrayList<FingerprintCatalog.Stamp> stamps = 
+                new ArrayList<FingerprintCatalog.Stamp>();
+        if(catalog != null){
+            for(FileWrapper fw: missing){
+                stamps.add(FingerprintCatalog.stamp(fw.file));
+            }
+        }
+        ArrayList<CanonicalFile> converted = 
+                ConversionPool.convertAll(missing, dir);
+        for(int i = 0; i < missing.size(); i++){
+            CanonicalFile cf = converted.get(i);
+            canonicalList.set(places.get(i), cf);
+            if(catalog != null){
+                catalog.record(missing.get(i).file, stamps.get(i), cf);
+            }
+        }
+        if(catalog != null){
+            catalog.retainOnly(sources);
+            catalog.save();
         }
         return canonicalList;
     }
@@ -247,7 +843,8 @@ public class SignalMatcher {
      */
     private static void checkArgs(String[] args){
         if(((args.length == 4) &&
-                (args[0].equals("-f") || args[0].equals("-d")) &&
+                (args[0].equals("-f") || args[0].equals("-d") ||
+                        args[0].equals(INDEX_MODE)) &&
                 (args[2].equals("-f") || args[2].equals("-d")))) {
             return;
         } 
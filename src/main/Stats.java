@@ -0,0 +1,288 @@
+package main;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and stage timers of a run, written out when the program exits
+ * so that capacity can be tuned from real numbers
+ * Nothing is counted unless a report is asked for: the
+ * signalmatcher.stats system property names a file for a JSON report
+ * and signalmatcher.stats.prometheus one for the Prometheus text format
+ * Metrics are LongAdders, so threads adding to the same metric do not
+ * contend; the hottest loops count in local variables and add them once
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class Stats {
+    /**
+     * File the JSON report is written to, or null
+     */
+    private static final String JSON_FILE =
+            System.getProperty("signalmatcher.stats");
+    /**
+     * File the Prometheus report is written to, or null
+     */
+    private static final String PROMETHEUS_FILE =
+            System.getProperty("signalmatcher.stats.prometheus");
+    /**
+     * Is anything counted?
+     */
+    public static final boolean ENABLED =
+            JSON_FILE != null || PROMETHEUS_FILE != null;
+    /**
+     * Every metric, in the order they are reported
+     */
+    private static final ArrayList<Metric> METRICS = new ArrayList<Metric>();
+
+    /**
+     * Files decoded and fingerprinted
+     */
+    public static final Metric FILES_CONVERTED = counter("files_converted",
+            "Files decoded and fingerprinted");
+    /**
+     * Files whose fingerprints came from a FingerprintCatalog
+     */
+    public static final Metric FILES_FROM_CATALOG = counter(
+            "files_from_catalog",
+            "Files whose fingerprints were loaded from a catalog");
+    /**
+     * Chunks fingerprinted
+     */
+    public static final Metric CHUNKS_FINGERPRINTED = counter(
+            "chunks_fingerprinted", "Chunks whose fingerprints were computed");
+    /**
+     * Postings in the index of the first directory
+     */
+    public static final Metric INDEX_POSTINGS = counter("index_postings",
+            "Fingerprints indexed");
+    /**
+     * Indexed fingerprints found in the hash window of a query chunk
+     */
+    public static final Metric CANDIDATES = counter("hash_window_candidates",
+            "Indexed fingerprints within the hash window of a query chunk");
+    /**
+     * Distances computed between two fingerprints
+     */
+    public static final Metric DISTANCES = counter("distance_computations",
+            "Distances computed between two fingerprints");
+    /**
+     * Fragments compared by chainCompare
+     */
+    public static final Metric CHAIN_COMPARISONS = counter(
+            "chain_comparisons", "Fragments compared by chainCompare");
+    /**
+     * Pairs of a query file and an indexed file compared
+     */
+    public static final Metric FILE_PAIRS = counter("file_pairs",
+            "Pairs of files compared");
+    /**
+     * Pairs of files that matched
+     */
+    public static final Metric FILE_PAIRS_MATCHED = counter(
+            "file_pairs_matched", "Pairs of files that matched");
+    /**
+     * Time spent checking that the arguments are supported audio files
+     */
+    public static final Metric HEADER_CHECKS = timer("header_checks",
+            "Wall time checking file names and headers");
+    /**
+     * Time spent converting and fingerprinting files not in a catalog
+     */
+    public static final Metric CONVERSION = timer("conversion",
+            "Wall time converting and fingerprinting files");
+    /**
+     * Time decoder processes were running
+     */
+    public static final Metric DECODERS = timer("decoders",
+            "Time lame and oggdec processes were running, summed");
+    /**
+     * Time spent computing fingerprints from samples
+     */
+    public static final Metric FINGERPRINTING = timer("fingerprinting",
+            "Time computing FFTs and bands, summed over files");
+    /**
+     * Time spent building the index
+     */
+    public static final Metric INDEX_BUILD = timer("index_build",
+            "Wall time building the index");
+    /**
+     * Time spent matching query files against the index
+     */
+    public static final Metric MATCHING = timer("matching",
+            "Wall time matching query files against the index");
+
+    static {
+        if(ENABLED){
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+                @Override
+                public void run(){
+                    if(JSON_FILE != null){
+                        write(JSON_FILE, toJson());
+                    }
+                    if(PROMETHEUS_FILE != null){
+                        write(PROMETHEUS_FILE, toPrometheus());
+                    }
+                }
+            }, "stats-report"));
+        }
+    }
+
+    /**
+     * Gets the start time of a stage timed with Metric.stop
+     * @return Current time in nanoseconds, or 0 if nothing is counted
+     */
+    public static long start(){
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Formats every metric as a JSON object
+     * @return JSON report
+     */
+    public static String toJson(){
+        StringBuilder counters = new StringBuilder();
+        StringBuilder timers = new StringBuilder();
+        for(Metric m : METRICS){
+            StringBuilder sb = m.timer ? timers : counters;
+            sb.append(sb.length() == 0 ? "\n" : ",\n");
+            sb.append("    \"").append(m.name).append("\": ")
+                    .append(m.reported());
+        }
+        return "{\n  \"counters\": {" + counters + "\n  },\n" +
+                "  \"timers_seconds\": {" + timers + "\n  }\n}\n";
+    }
+
+    /**
+     * Formats every metric in the Prometheus text exposition format
+     * @return Prometheus report
+     */
+    public static String toPrometheus(){
+        StringBuilder sb = new StringBuilder();
+        for(Metric m : METRICS){
+            String name = "signalmatcher_" + m.name +
+                    (m.timer ? "_seconds_total" : "_total");
+            sb.append("# HELP ").append(name).append(' ')
+                    .append(m.help).append('\n');
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(m.reported()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a report, printing an error if it cannot be written
+     * @param fileName File to write
+     * @param report Contents of the file
+     */
+    private static void write(String fileName, String report){
+        try{
+            PrintWriter out = new PrintWriter(fileName);
+            out.print(report);
+            out.close();
+        }
+        catch (FileNotFoundException e){
+            System.err.println("ERROR: cannot write " + fileName);
+        }
+    }
+
+    /**
+     * Creates and registers a counter
+     * @param name Name in reports
+     * @param help Description in reports
+     * @return The counter
+     */
+    private static Metric counter(String name, String help){
+        Metric m = new Metric(name, help, false);
+        METRICS.add(m);
+        return m;
+    }
+
+    /**
+     * Creates and registers a timer
+     * @param name Name in reports
+     * @param help Description in reports
+     * @return The timer
+     */
+    private static Metric timer(String name, String help){
+        Metric m = new Metric(name, help, true);
+        METRICS.add(m);
+        return m;
+    }
+
+    /**
+     * A count, or a time in nanoseconds, summed over every thread
+     */
+    public static class Metric {
+        /**
+         * Name in reports
+         */
+        private final String name;
+        /**
+         * Description in reports
+         */
+        private final String help;
+        /**
+         * Is this a time in nanoseconds?
+         */
+        private final boolean timer;
+        /**
+         * Sum so far
+         */
+        private final LongAdder sum = new LongAdder();
+
+        /**
+         * Constructor for a Metric
+         * @param name Name in reports
+         * @param help Description in reports
+         * @param timer True if the metric is a time in nanoseconds
+         */
+        private Metric(String name, String help, boolean timer){
+            this.name = name;
+            this.help = help;
+            this.timer = timer;
+        }
+
+        /**
+         * Adds to the metric
+         * @param n Amount to add
+         */
+        public void add(long n){
+            if(ENABLED){
+                sum.add(n);
+            }
+        }
+
+        /**
+         * Adds the time since start to a timer
+         * @param start Time returned by Stats.start
+         */
+        public void stop(long start){
+            if(ENABLED){
+                sum.add(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Gets the sum so far
+         * @return Count, or time in nanoseconds
+         */
+        public long get(){
+            return sum.sum();
+        }
+
+        /**
+         * Gets the value as reported: counts as they are, and times in
+         * seconds
+         * @return Reported value
+         */
+        private String reported(){
+            return timer ? Double.toString(get() / 1e9)
+                    : Long.toString(get());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package main;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The format and the location of the PCM data of a WAV file, read by
+ * walking its RIFF chunks from the start of the file without seeking
+ * WAV files with LIST, fact or other extra chunks before their data are
+ * read from the right offset, whether they come from a file or a pipe
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class WavHeader {
+    /**
+     * WAVE_FORMAT_PCM
+     */
+    private static final int FORMAT_PCM = 1;
+    /**
+     * WAVE_FORMAT_EXTENSIBLE
+     */
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    /**
+     * Number of bytes of the "fmt " chunk that are read
+     */
+    private static final int FORMAT_BYTES = 16;
+    /**
+     * Stream being read
+     */
+    private final InputStream in;
+    /**
+     * Number of bytes read or skipped so far
+     */
+    private long position = 0;
+    /**
+     * Number of channels
+     */
+    private int channels;
+    /**
+     * Sample rate in Hz
+     */
+    private int sampleRate;
+    /**
+     * Sample size in bits
+     */
+    private int sampleSize;
+    /**
+     * Offset of the first PCM byte from the start of the file
+     */
+    private long dataOffset;
+    /**
+     * Size of the data chunk as the file gives it
+     */
+    private long dataSize;
+
+    /**
+     * Constructor for a WavHeader
+     * @param in Stream positioned at the start of a WAV file
+     */
+    private WavHeader(InputStream in){
+        this.in = in;
+    }
+
+    /**
+     * Reads the header of a WAV file, leaving the stream at the start
+     * of its PCM data
+     * @param in Stream positioned at the start of a WAV file
+     * @param name Name of the file, for error messages
+     * @return Header of the file
+     * @throws IOException If the stream is not a PCM WAV file
+     */
+    public static WavHeader read(InputStream in, String name)
+            throws IOException {
+        WavHeader header = new WavHeader(in);
+        header.parse(name);
+        return header;
+    }
+
+    /**
+     * Walks the RIFF chunks up to the data chunk, reading the format on
+     * the way
+     * @param name Name of the file, for error messages
+     * @throws IOException If the stream is not a PCM WAV file
+     */
+    private void parse(String name) throws IOException {
+        byte[] riff = new byte[12];
+        readFully(riff);
+        if(!fourCC(riff, 0).equals("RIFF") ||
+                !fourCC(riff, 8).equals("WAVE")){
+            throw new IOException(name + " is not a WAV file");
+        }
+        boolean hasFormat = false;
+        byte[] chunk = new byte[8];
+        while(true){
+            readFully(chunk);
+            String id = fourCC(chunk, 0);
+            long size = int32(chunk, 4) & 0xffffffffL;
+            if(id.equals("fmt ")){
+                if(size < FORMAT_BYTES){
+                    throw new IOException(name + " has a bad format chunk");
+                }
+                byte[] fmt = new byte[FORMAT_BYTES];
+                readFully(fmt);
+                int tag = int16(fmt, 0);
+                if(tag != FORMAT_PCM && tag != FORMAT_EXTENSIBLE){
+                    throw new IOException(name + " is not PCM");
+                }
+                channels = int16(fmt, 2);
+                sampleRate = int32(fmt, 4);
+                sampleSize = int16(fmt, 14);
+                hasFormat = true;
+                skip(size - FORMAT_BYTES + (size & 1));
+            } else if(id.equals("data")){
+                if(!hasFormat){
+                    throw new IOException(name + " has no format chunk");
+                }
+                dataOffset = position;
+                dataSize = size;
+                return;
+            } else {
+                // Chunks are padded to an even number of bytes
+                skip(size + (size & 1));
+            }
+        }
+    }
+
+    /**
+     * Reads exactly buffer.length bytes of header
+     * @param buffer Buffer for the bytes
+     * @throws IOException If the stream ends first
+     */
+    private void readFully(byte[] buffer) throws IOException {
+        int total = 0;
+        while(total < buffer.length){
+            int read = in.read(buffer, total, buffer.length - total);
+            if(read < 0){
+                throw new EOFException("Unexpected end of WAV header");
+            }
+            total += read;
+        }
+        position += total;
+    }
+
+    /**
+     * Skips bytes of header
+     * @param count Number of bytes
+     * @throws IOException If the stream ends first
+     */
+    private void skip(long count) throws IOException {
+        position += count;
+        while(count > 0){
+            long skipped = in.skip(count);
+            if(skipped <= 0){
+                if(in.read() < 0){
+                    throw new EOFException("Unexpected end of WAV header");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Reads four ASCII characters
+     * @param b Bytes
+     * @param i Index of the first character
+     * @return String of the characters
+     */
+    private static String fourCC(byte[] b, int i){
+        return new String(new char[]{(char) b[i], (char) b[i + 1],
+                (char) b[i + 2], (char) b[i + 3]});
+    }
+
+    /**
+     * Reads a little-endian unsigned short
+     * @param b Bytes
+     * @param i Index of the first byte
+     * @return Value
+     */
+    private static int int16(byte[] b, int i){
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8);
+    }
+
+    /**
+     * Reads a little-endian int
+     * @param b Bytes
+     * @param i Index of the first byte
+     * @return Value
+     */
+    private static int int32(byte[] b, int i){
+        return int16(b, i) | (int16(b, i + 2) << 16);
+    }
+
+    /**
+     * Gets the number of channels
+     * @return Number of channels
+     */
+    public int getChannels(){
+        return channels;
+    }
+
+    /**
+     * Gets the sample rate
+     * @return Samples per second
+     */
+    public int getSampleRate(){
+        return sampleRate;
+    }
+
+    /**
+     * Gets the sample size
+     * @return Sample size in bits
+     */
+    public int getSampleSize(){
+        return sampleSize;
+    }
+
+    /**
+     * Gets the offset of the PCM data
+     * @return Offset of the first PCM byte from the start of the file
+     */
+    public long getDataOffset(){
+        return dataOffset;
+    }
+
+    /**
+     * Gets the size of the data chunk as the file gives it, which a
+     * streamed WAV may leave unset or too large
+     * @return Size in bytes
+     */
+    public long getDataSize(){
+        return dataSize;
+    }
+}
@@ -0,0 +1,104 @@
+package main;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the PCM data of a WAV file through memory-mapped views
+ * The data is found by walking the RIFF chunks with WavHeader, as a
+ * WavStream finds it
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class WavReader implements Closeable {
+    /**
+     * Open file
+     */
+    private RandomAccessFile raf;
+    /**
+     * Channel of the open file
+     */
+    private FileChannel channel;
+    /**
+     * Offset of the first PCM byte in the file
+     */
+    private long dataOffset;
+    /**
+     * Number of PCM bytes
+     */
+    private long dataLength;
+
+    /**
+     * Constructor for a WavReader
+     * @param file WAV file
+     * @throws IOException If the file cannot be read or is not a PCM
+     * WAV file
+     */
+    public WavReader(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        try {
+            parseHeader(file.getName());
+        } catch (IOException e){
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the header of the file and locates its data
+     * @param name Name of the file, for error messages
+     * @throws IOException If the file is not a PCM WAV file
+     */
+    private void parseHeader(String name) throws IOException {
+        // Not closed, as that would close the channel
+        WavHeader header = WavHeader.read(
+                Channels.newInputStream(channel), name);
+        dataOffset = header.getDataOffset();
+        // Streamed WAVs may leave the size unset or too large
+        dataLength = Math.min(header.getDataSize(),
+                channel.size() - dataOffset);
+    }
+
+    /**
+     * Maps a region of the PCM data into memory
+     * The view is little-endian and shares the page cache with the file,
+     * so reading from it copies nothing
+     * @param offset Offset in the PCM data
+     * @param length Number of bytes, at most Integer.MAX_VALUE
+     * @return Read-only view of the region
+     * @throws IOException If the region cannot be mapped
+     */
+    public ByteBuffer map(long offset, long length) throws IOException {
+        MappedByteBuffer view = channel.map(FileChannel.MapMode.READ_ONLY,
+                dataOffset + offset, length);
+        view.order(ByteOrder.LITTLE_ENDIAN);
+        return view;
+    }
+
+    /**
+     * Gets the number of PCM bytes
+     * @return Length of the data chunk in bytes
+     */
+    public long getDataLength(){
+        return dataLength;
+    }
+
+    /**
+     * Closes the file
+     * Views already mapped remain readable
+     * @throws IOException If the file cannot be closed
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+}
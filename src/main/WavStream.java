@@ -0,0 +1,96 @@
+package main;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the PCM data of a WAV file arriving on a stream, such as the
+ * standard output of a decoder, without ever seeking
+ * Decoders writing to a pipe cannot go back to fill in the size of the
+ * data chunk, so a size of 0 or 0xFFFFFFFF means the data runs to the
+ * end of the stream
+ * @author Ariel Winton
+ * @author James O'Brien
+ * @author Nnamdi Okeke
+ * @author Rani Aljondi
+ */
+public class WavStream {
+    /**
+     * Stream being read
+     */
+    private InputStream in;
+    /**
+     * Number of PCM bytes left, or -1 if the data runs to the end of
+     * the stream
+     */
+    private long remaining;
+    /**
+     * Format of the file
+     */
+    private WavHeader header;
+
+    /**
+     * Constructor for a WavStream, which reads the stream up to the
+     * start of its PCM data
+     * @param in Stream positioned at the start of a WAV file
+     * @param name Name of the file, for error messages
+     * @throws IOException If the stream is not a PCM WAV file
+     */
+    public WavStream(InputStream in, String name) throws IOException {
+        this.in = in;
+        header = WavHeader.read(in, name);
+        long size = header.getDataSize();
+        remaining = (size == 0 || size == 0xffffffffL) ? -1 : size;
+    }
+
+    /**
+     * Reads PCM bytes until the buffer holds length bytes or the data
+     * ends, so that a short read only ever happens at the end
+     * @param buffer Buffer for the bytes
+     * @param length Number of bytes wanted
+     * @return Number of bytes read, 0 at the end of the data
+     * @throws IOException If the stream cannot be read
+     */
+    public int read(byte[] buffer, int length) throws IOException {
+        if(remaining >= 0){
+            length = (int) Math.min(length, remaining);
+        }
+        int total = 0;
+        while(total < length){
+            int read = in.read(buffer, total, length - total);
+            if(read < 0){
+                remaining = 0;
+                break;
+            }
+            total += read;
+        }
+        if(remaining > 0){
+            remaining -= total;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of channels
+     * @return Number of channels
+     */
+    public int getChannels(){
+        return header.getChannels();
+    }
+
+    /**
+     * Gets the sample rate
+     * @return Samples per second
+     */
+    public int getSampleRate(){
+        return header.getSampleRate();
+    }
+
+    /**
+     * Gets the sample size
+     * @return Sample size in bits
+     */
+    public int getSampleSize(){
+        return header.getSampleSize();
+    }
+}
@@ -41,25 +41,24 @@ public class WavWrapper extends FileWrapper {
                     (sampleRate == 11025 || sampleRate == 22050 ||
                     sampleRate == 44100 || sampleRate == 48000) &&
                     type.toString().equals("WAVE")))  {
-                System.err.println("ERROR: " +
-                        file.getName() + 
+                Fatal.error(file.getName() + 
                         " is not a supported format");
-                System.exit(1);
             }
         } 
         catch (Exception e){
-            System.err.println("ERROR: " +
-                    file.getName() + 
-                    " is not a supported format");
-            System.exit(1);
+            Fatal.error(file.getName() + " is not a supported format");
         }
     }
 
+    /**
+     * A WAV file is already PCM, so it is read in place: CanonicalFile
+     * downmixes and resamples it while fingerprinting, without LAME or
+     * any intermediate file
+     * @param targetDirectory Directory for intermediate files, unused
+     * @return A canonical file
+     */
     @Override
     public CanonicalFile convert(File targetDirectory) {
-        File newFile = new File(targetDirectory, file.getName());
-        LAME.convertWAVtoCanonical(file.getAbsolutePath(),
-                newFile.getAbsolutePath());
-        return new CanonicalFile(file.getName(), newFile);
+        return new CanonicalFile(file.getName(), file);
     }
 }